@@ -27,17 +27,33 @@ package org.kitteh.craftirc;
 import net.minestom.server.MinecraftServer;
 import net.minestom.server.chat.ChatColor;
 import net.minestom.server.chat.ColoredText;
+import net.minestom.server.command.CommandSender;
 import net.minestom.server.command.builder.Command;
 import net.minestom.server.command.builder.arguments.Argument;
 import net.minestom.server.command.builder.arguments.ArgumentString;
+import net.minestom.server.command.builder.arguments.ArgumentStringArray;
+import net.minestom.server.command.builder.arguments.ArgumentWord;
 import net.minestom.server.extensions.Extension;
 import net.minestom.server.utils.time.TimeUnit;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+import org.kitteh.craftirc.archive.ArchiveSearch;
+import org.kitteh.craftirc.archive.ArchivedMessage;
+import org.kitteh.craftirc.archive.ChatArchive;
 import org.kitteh.craftirc.exceptions.CraftIRCInvalidConfigException;
 import org.kitteh.craftirc.exceptions.CraftIRCUnableToStartException;
 import org.kitteh.craftirc.exceptions.CraftIRCWillLeakTearsException;
+import org.kitteh.craftirc.irc.AdaptivePacer;
 import org.kitteh.craftirc.irc.BotManager;
+import org.kitteh.craftirc.irc.ConnectionWatchdog;
+import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.irc.LaneExecutor;
+import org.kitteh.craftirc.irc.OutboundQueue;
+import org.kitteh.craftirc.irc.PrivateMessages;
+import org.kitteh.craftirc.metrics.LatencyHistogram;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
 import org.slf4j.Logger;
 import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
@@ -49,12 +65,21 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public final class CraftIRC extends Extension {
 
     private static Logger loggy;
     private static final String PERMISSION_RELOAD = "craftirc.reload";
+    private static final String PERMISSION_SEARCH = "craftirc.search";
+    private static final String PERMISSION_MSG = "craftirc.ircmsg";
+    private static final int SEARCH_LIMIT = 20;
+    private static final DateTimeFormatter SEARCH_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
 
     private File configDir;
 
@@ -76,6 +101,12 @@ public final class CraftIRC extends Extension {
             }
             String arg =  args.getRaw(argObj).toString();
             switch (arg) {
+            case "bots":
+                this.sendBots(commandSource);
+                break;
+            case "latency":
+                this.sendLatency(commandSource);
+                break;
             case "reload":
                 if (this.reloading) {
                     commandSource.sendMessage(ColoredText.of(ChatColor.RED, "CraftIRC reload already in progress"));
@@ -92,11 +123,159 @@ public final class CraftIRC extends Extension {
                 
             }
         }, argObj);
+        Argument<String[]> queryObj = new ArgumentStringArray("query");
+        mainCommand.addSyntax((commandSource, args) -> {
+            if (!commandSource.hasPermission(PERMISSION_SEARCH)) {
+                return;
+            }
+            this.search(commandSource, args.get(queryObj));
+        }, new ArgumentWord("search").from("search"), queryObj);
         mainCommand.setDefaultExecutor((commandSource, args) -> {
             commandSource.sendMessage(ChatColor.CYAN + "CraftIRC version " + ChatColor.RESET + this.version + ChatColor.CYAN +  " - Powered by Kittens\n"
                     + ChatColor.DARK_CYAN + "Original by mbaxter, ported to minestom by geolykt.");
         });
         MinecraftServer.getCommandManager().register(mainCommand);
+
+        Argument<String> nickObj = new ArgumentWord("nick");
+        Argument<String[]> textObj = new ArgumentStringArray("message");
+        Command msgCommand = new Command("ircmsg");
+        msgCommand.addSyntax((commandSource, args) -> {
+            if (!commandSource.hasPermission(PERMISSION_MSG)) {
+                return;
+            }
+            this.sendPrivateMessage(commandSource, args.get(nickObj), String.join(" ", args.get(textObj)));
+        }, nickObj, textObj);
+        msgCommand.setDefaultExecutor((commandSource, args) -> {
+            commandSource.sendMessage(ColoredText.of(ChatColor.RED, "Usage: /ircmsg <nick> <message>"));
+        });
+        MinecraftServer.getCommandManager().register(msgCommand);
+    }
+
+    private void sendPrivateMessage(@NotNull CommandSender sender, @NotNull String nick, @NotNull String message) {
+        if (!sender.isPlayer()) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "Only players can send private messages to IRC"));
+            return;
+        }
+        BotManager manager = this.getBotManager();
+        if (manager == null) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "CraftIRC is not running"));
+            return;
+        }
+        // Prefer the bot that can see the user, any bot will do if none can
+        PrivateMessages messages = null;
+        for (Map.Entry<String, IRCBot> bot : manager.getBots()) {
+            PrivateMessages candidate = bot.getValue().getPrivateMessages();
+            if (candidate != null && (messages == null || candidate.knows(nick))) {
+                messages = candidate;
+                if (candidate.knows(nick)) {
+                    break;
+                }
+            }
+        }
+        if (messages == null) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "Private messages to IRC are disabled"));
+        } else if (!messages.isUser(nick)) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "Private messages can only be sent to IRC users, not to channels"));
+        } else if (!messages.toIRC(sender.asPlayer().getUsername(), nick, message)) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "Your message was not delivered"));
+        } else {
+            sender.sendMessage(ChatColor.GRAY + "You whisper to " + nick + " on IRC: " + ChatColor.RESET + message);
+        }
+    }
+
+    private void sendBots(@NotNull CommandSender sender) {
+        BotManager manager = this.getBotManager();
+        if (manager == null) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "CraftIRC is not running"));
+            return;
+        }
+        for (Map.Entry<String, IRCBot> bot : manager.getBots()) {
+            StringBuilder lanes = new StringBuilder();
+            for (Map.Entry<String, LaneExecutor.Lane> lane : bot.getValue().getExecutor().getLanes().entrySet()) {
+                lanes.append(lanes.length() == 0 ? "" : ", ").append(lane.getKey().isEmpty() ? "(users)" : lane.getKey())
+                    .append(' ').append(lane.getValue().getBacklog()).append(" queued (max ")
+                    .append(lane.getValue().getMaxBacklog()).append(')');
+            }
+            sender.sendMessage(ChatColor.CYAN + bot.getKey() + ChatColor.RESET + ": "
+                    + (lanes.length() == 0 ? "no events handled yet" : lanes.toString()));
+            ConnectionWatchdog watchdog = bot.getValue().getWatchdog();
+            if (watchdog != null) {
+                sender.sendMessage("  lag: " + (watchdog.getLag() < 0 ? "unknown" : watchdog.getLag() + " ms")
+                        + ", last heard " + watchdog.getSilence() / 1000 + " s ago, " + watchdog.getReconnects() + " forced reconnects");
+            }
+            OutboundQueue outbound = bot.getValue().getOutbound();
+            if (outbound != null) {
+                StringBuilder queues = new StringBuilder();
+                for (OutboundQueue.Priority priority : OutboundQueue.Priority.values()) {
+                    queues.append(queues.length() == 0 ? "" : ", ").append(priority.name().toLowerCase()).append(' ')
+                        .append(outbound.getSize(priority)).append(" queued (")
+                        .append(outbound.getShed(priority)).append(" shed)");
+                }
+                AdaptivePacer pacer = outbound.getPacer();
+                sender.sendMessage("  outbound: " + queues + ", " + outbound.getInterval() + " ms per line"
+                        + (pacer == null || pacer.getCeiling() == 0 ? "" : " (throttled at " + pacer.getCeiling() + " ms)"));
+            }
+        }
+    }
+
+    private void search(@NotNull CommandSender sender, @NotNull String[] query) {
+        ChatArchive chatArchive = this.archive;
+        if (chatArchive == null) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "The chat archive is disabled"));
+            return;
+        }
+        // The last argument is the start of the search if it looks like one, "7d" or "2021-03-01" for example
+        long since = query.length > 1 ? ArchiveSearch.parseSince(query[query.length - 1]) : -1;
+        String text = String.join(" ", since < 0 ? query : Arrays.copyOf(query, query.length - 1));
+        long started = System.nanoTime();
+        chatArchive.getSearch().search(text, Math.max(since, 0), SEARCH_LIMIT).whenComplete((found, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                sender.sendMessage(ColoredText.of(ChatColor.RED, "Search failed, see the server log"));
+                return;
+            }
+            if (found.isEmpty()) {
+                sender.sendMessage(ColoredText.of(ChatColor.CYAN, "No messages found"));
+                return;
+            }
+            sender.sendMessage(ChatColor.CYAN + String.format("%d messages found in %.1fms, newest first", found.size(),
+                    (System.nanoTime() - started) / 1e6));
+            for (ArchivedMessage message : found) {
+                String line = message.getType().equals("CHAT") ? "<" + message.getUser() + "> " + message.getContent()
+                        : "* " + message.getUser() + " " + message.getType().toLowerCase() + " " + message.getContent();
+                sender.sendMessage(ChatColor.GRAY + SEARCH_TIME.format(Instant.ofEpochMilli(message.getTime())) + " "
+                        + ChatColor.DARK_CYAN + message.getBot() + (message.isFromIRC() ? " IRC " : " MC ")
+                        + ChatColor.RESET + line);
+            }
+        });
+    }
+
+    private void sendLatency(@NotNull CommandSender sender) {
+        BotManager manager = this.getBotManager();
+        if (manager == null) {
+            sender.sendMessage(ColoredText.of(ChatColor.RED, "CraftIRC is not running"));
+            return;
+        }
+        for (Map.Entry<String, IRCBot> bot : manager.getBots()) {
+            LatencyTracer tracer = bot.getValue().getTracer();
+            if (!tracer.isEnabled()) {
+                sender.sendMessage(ChatColor.CYAN + bot.getKey() + ChatColor.RESET + ": tracing disabled");
+                continue;
+            }
+            sender.sendMessage(ChatColor.CYAN + bot.getKey() + ChatColor.RESET + ": Minestom to IRC "
+                    + this.formatLatency(tracer.getHistogram(Trace.Direction.TO_IRC, Trace.Hop.WRITE))
+                    + ", IRC to Minestom "
+                    + this.formatLatency(tracer.getHistogram(Trace.Direction.TO_MINESTOM, Trace.Hop.BROADCAST)));
+        }
+    }
+
+    @NotNull
+    private String formatLatency(@NotNull LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "no samples";
+        }
+        return String.format("p50 %.2fms p99 %.2fms max %.2fms (%d samples)", histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6, histogram.getCount());
     }
 
     @Override
@@ -136,7 +315,12 @@ public final class CraftIRC extends Extension {
                 throw new CraftIRCInvalidConfigException("No bots defined!");
             }
 
-            this.botManager = new BotManager(bots);
+            ConfigurationNode archive = root.node("archive");
+            if (archive.node("enabled").getBoolean(false)) {
+                this.archive = new ChatArchive(new File(this.configDir, archive.node("directory").getString("archive")).toPath(),
+                        archive.node("queue").getInt(8192), archive.node("sync-interval").getLong(5000));
+            }
+            this.botManager = new BotManager(bots, root.node("relay"), this.archive);
         } catch (Exception e) {
             this.getLogger().error("Uh oh", new CraftIRCUnableToStartException("Could not start CraftIRC!", e));
             this.dontMakeAGrownManCry();
@@ -145,11 +329,33 @@ public final class CraftIRC extends Extension {
     }
 
     private synchronized void dontMakeAGrownManCry() {
-        getBotManager().shutdown();
+        if (this.botManager != null) {
+            this.botManager.shutdown();
+            this.botManager = null;
+        }
+        if (this.archive != null) {
+            this.archive.shutdown();
+            this.archive = null;
+        }
         // And lastly...
         CraftIRC.loggy = null;
     }
 
+    /**
+     * Sets the logger while CraftIRC runs outside of Minestom, which only sets it when CraftIRC is loaded
+     * as an extension. Used by the load harness and the tests.
+     *
+     * @param logger the logger
+     * @throws IllegalStateException if CraftIRC already has a logger
+     */
+    @TestOnly
+    public static void setLogger(@NotNull Logger logger) {
+        if (CraftIRC.loggy != null) {
+            throw new IllegalStateException("CraftIRC is running and already has a logger");
+        }
+        CraftIRC.loggy = logger;
+    }
+
     @NotNull
     public static Logger log() {
         if (CraftIRC.loggy == null) {
@@ -159,6 +365,7 @@ public final class CraftIRC extends Extension {
     }
 
     private BotManager botManager;
+    private ChatArchive archive;
 
     @NotNull
     public BotManager getBotManager() {
@@ -0,0 +1,342 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The index of a compressed archive file.
+ * The archive file is compressed as a series of independent gzip members, the blocks, which together are still a
+ * valid gzip file. The index lists the position and the time range of every block and, for every user and every word,
+ * the blocks that contain them. Users and words are stored as 64 bit hashes in a sorted table, so a lookup is a binary
+ * search within the memory-mapped index and only the blocks that may contain a match have to be decompressed.
+ * Hash collisions only cause blocks to be searched needlessly, the records are always matched against the query.
+ */
+final class ArchiveIndex {
+    private static final int MAGIC = 0x43495258; // CIRX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOCK_ENTRY_SIZE = 28;
+    private static final int KEY_ENTRY_SIZE = 16;
+
+    /**
+     * The amount of uncompressed bytes after which a new block is started.
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Words shorter than this are not indexed.
+     */
+    static final int MIN_WORD_LENGTH = 2;
+
+    private static final class Postings {
+        private int[] blocks = new int[4];
+        private int size;
+
+        private void add(int block) {
+            if (this.size > 0 && this.blocks[this.size - 1] == block) {
+                return;
+            }
+            if (this.size == this.blocks.length) {
+                this.blocks = Arrays.copyOf(this.blocks, this.size * 2);
+            }
+            this.blocks[this.size++] = block;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int blockCount;
+    private final int keyCount;
+    private final int keysStart;
+    private final int postingsStart;
+
+    private ArchiveIndex(@NotNull MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an archive index");
+        }
+        this.blockCount = buffer.getInt(8);
+        this.keyCount = buffer.getInt(12);
+        this.keysStart = HEADER_SIZE + this.blockCount * BLOCK_ENTRY_SIZE;
+        this.postingsStart = this.keysStart + this.keyCount * KEY_ENTRY_SIZE;
+    }
+
+    /**
+     * Maps an index file into memory.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if the file could not be read or is not an index
+     */
+    @NotNull
+    static ArchiveIndex open(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ArchiveIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    int getBlockCount() {
+        return this.blockCount;
+    }
+
+    long getOffset(int block) {
+        return this.buffer.getLong(HEADER_SIZE + block * BLOCK_ENTRY_SIZE);
+    }
+
+    int getLength(int block) {
+        return this.buffer.getInt(HEADER_SIZE + block * BLOCK_ENTRY_SIZE + 8);
+    }
+
+    long getFirstTime(int block) {
+        return this.buffer.getLong(HEADER_SIZE + block * BLOCK_ENTRY_SIZE + 12);
+    }
+
+    long getLastTime(int block) {
+        return this.buffer.getLong(HEADER_SIZE + block * BLOCK_ENTRY_SIZE + 20);
+    }
+
+    /**
+     * Finds the blocks that contain a user or word.
+     *
+     * @param key the key of the user or word
+     * @return the ascending block numbers, empty if no block contains the key
+     */
+    @NotNull
+    int[] getPostings(long key) {
+        int low = 0;
+        int high = this.keyCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = this.buffer.getLong(this.keysStart + middle * KEY_ENTRY_SIZE);
+            if (found < key) {
+                low = middle + 1;
+            } else if (found > key) {
+                high = middle - 1;
+            } else {
+                int entry = this.keysStart + middle * KEY_ENTRY_SIZE;
+                int offset = this.buffer.getInt(entry + 8);
+                int[] blocks = new int[this.buffer.getInt(entry + 12)];
+                for (int i = 0; i < blocks.length; i++) {
+                    blocks[i] = this.buffer.getInt(this.postingsStart + (offset + i) * 4);
+                }
+                return blocks;
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Gets the key a user is indexed with.
+     *
+     * @param user the user
+     * @return the key
+     */
+    static long userKey(@NotNull String user) {
+        return hash('u', user.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the key a word is indexed with.
+     *
+     * @param word the word, in lower case
+     * @return the key
+     */
+    static long wordKey(@NotNull String word) {
+        return hash('w', word);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a kind prefix and a string.
+     */
+    private static long hash(char kind, @NotNull String value) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Calls the consumer with the key of every word within a text.
+     * Words are runs of letters and digits, compared in lower case.
+     *
+     * @param text the text
+     * @param keys receives the keys
+     */
+    static void forEachWord(@NotNull String text, @NotNull LongConsumer keys) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_WORD_LENGTH) {
+                    keys.accept(wordKey(lower.substring(start, i)));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Compresses an archive file block by block and writes it's index.
+     * The compressed file and the index are written next to their final place and only moved there once complete.
+     *
+     * @param log the uncompressed archive file
+     * @param compressed where the compressed file is written to
+     * @param index where the index is written to
+     * @throws IOException if a file could not be read or written
+     */
+    static void write(@NotNull Path log, @NotNull Path compressed, @NotNull Path index) throws IOException {
+        Path partialCompressed = compressed.resolveSibling(compressed.getFileName() + ".part");
+        Path partialIndex = index.resolveSibling(index.getFileName() + ".part");
+        Map<Long, Postings> postings = new HashMap<>();
+        ByteArrayOutputStream blockData = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+        ByteArrayOutputStream blockCompressed = new ByteArrayOutputStream(BLOCK_SIZE / 4);
+        long[] blocks = new long[4 * 16];
+        int blockCount = 0;
+        long offset = 0;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(partialCompressed), 1 << 16)) {
+            String line;
+            while (true) {
+                line = reader.readLine();
+                if (line == null || blockData.size() >= BLOCK_SIZE) {
+                    if (blockData.size() > 0) {
+                        blockCompressed.reset();
+                        try (GZIPOutputStream gzip = new GZIPOutputStream(blockCompressed)) {
+                            blockData.writeTo(gzip);
+                        }
+                        blockCompressed.writeTo(out);
+                        if (blockCount * 4 == blocks.length) {
+                            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                        }
+                        blocks[blockCount * 4] = offset;
+                        blocks[blockCount * 4 + 1] = blockCompressed.size();
+                        blocks[blockCount * 4 + 2] = firstTime;
+                        blocks[blockCount * 4 + 3] = lastTime;
+                        blockCount++;
+                        offset += blockCompressed.size();
+                        blockData.reset();
+                        firstTime = Long.MAX_VALUE;
+                        lastTime = Long.MIN_VALUE;
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                }
+                byte[] bytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+                blockData.write(bytes, 0, bytes.length);
+                ArchivedMessage message = ArchivedMessage.parse(line);
+                if (message == null) {
+                    continue;
+                }
+                firstTime = Math.min(firstTime, message.getTime());
+                lastTime = Math.max(lastTime, message.getTime());
+                final int block = blockCount;
+                postings.computeIfAbsent(userKey(message.getUser()), key -> new Postings()).add(block);
+                forEachWord(message.getContent(), key -> postings.computeIfAbsent(key, k -> new Postings()).add(block));
+            }
+        }
+        long[] keys = new long[postings.size()];
+        int k = 0;
+        for (Long key : postings.keySet()) {
+            keys[k++] = key;
+        }
+        Arrays.sort(keys);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partialIndex), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockCount);
+            out.writeInt(keys.length);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeLong(blocks[i * 4]);
+                out.writeInt((int) blocks[i * 4 + 1]);
+                out.writeLong(blocks[i * 4 + 2]);
+                out.writeLong(blocks[i * 4 + 3]);
+            }
+            int postingsOffset = 0;
+            for (long key : keys) {
+                Postings entry = postings.get(key);
+                out.writeLong(key);
+                out.writeInt(postingsOffset);
+                out.writeInt(entry.size);
+                postingsOffset += entry.size;
+            }
+            for (long key : keys) {
+                Postings entry = postings.get(key);
+                for (int i = 0; i < entry.size; i++) {
+                    out.writeInt(entry.blocks[i]);
+                }
+            }
+        }
+        // The index is moved first, a compressed file without index is searched as a whole
+        Files.move(partialIndex, index, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(partialCompressed, compressed, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the index file that belongs to a compressed archive file.
+     *
+     * @param compressed the compressed file
+     * @return the index file, which may not exist
+     */
+    @NotNull
+    static Path indexOf(@NotNull Path compressed) {
+        String name = compressed.getFileName().toString();
+        return compressed.resolveSibling(name.substring(0, name.length() - ".log.gz".length()) + ".idx");
+    }
+
+    @Nullable
+    static ArchiveIndex openIfExists(@NotNull Path compressed) throws IOException {
+        Path index = indexOf(compressed);
+        return Files.exists(index) ? open(index) : null;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.archive;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Searches the archive for the messages of a user or the messages containing words.
+ * Compressed days are searched through their {@link ArchiveIndex}, so only the blocks that may contain a match are
+ * decompressed. The current day is not compressed yet and searched as a whole. Searches run on a thread of their own.
+ * @since 5.0.2
+ */
+public final class ArchiveSearch {
+    private static final Pattern FILE = Pattern.compile("chat-(\\d{4}-\\d{2}-\\d{2})\\.log(\\.gz)?");
+    private static final Pattern RELATIVE_TIME = Pattern.compile("(\\d+)([mhdw])");
+
+    private final Path directory;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CraftIRC archive search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ArchiveSearch(@NotNull Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Parses the start of a search, given either as a time relative to now like "30m", "12h", "7d" or "2w",
+     * or as a date like "2021-03-01".
+     *
+     * @param since the start
+     * @return the start in milliseconds since the epoch, or -1 if the text is not a valid start
+     */
+    public static long parseSince(@NotNull String since) {
+        Matcher relative = RELATIVE_TIME.matcher(since);
+        if (relative.matches()) {
+            long amount = Long.parseLong(relative.group(1));
+            switch (relative.group(2)) {
+            case "m":
+                return System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(amount);
+            case "h":
+                return System.currentTimeMillis() - TimeUnit.HOURS.toMillis(amount);
+            case "d":
+                return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(amount);
+            default:
+                return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(amount * 7);
+            }
+        }
+        try {
+            return LocalDate.parse(since).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Searches for the messages of a user or for messages that contain all words of the query.
+     *
+     * @param query a user name or the words to search for
+     * @param since only messages after this time are found, in milliseconds since the epoch
+     * @param limit the maximum amount of messages to find
+     * @return the messages found, newest first
+     */
+    @NotNull
+    public CompletableFuture<List<ArchivedMessage>> search(@NotNull String query, long since, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.run(query.trim(), since, limit);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, this.executor);
+    }
+
+    void shutdown() {
+        this.executor.shutdown();
+    }
+
+    private static final class Query {
+        private final String user;
+        private final String text;
+        private final Set<Long> words = new HashSet<>();
+        private final long since;
+
+        private Query(@NotNull String query, long since) {
+            this.user = query;
+            this.text = query.toLowerCase(Locale.ROOT);
+            ArchiveIndex.forEachWord(query, this.words::add);
+            this.since = since;
+        }
+
+        private boolean matches(@NotNull ArchivedMessage message) {
+            if (message.getTime() < this.since) {
+                return false;
+            }
+            if (message.getUser().equalsIgnoreCase(this.user)) {
+                return true;
+            }
+            if (this.words.isEmpty()) {
+                return message.getContent().toLowerCase(Locale.ROOT).contains(this.text);
+            }
+            Set<Long> contained = new HashSet<>();
+            ArchiveIndex.forEachWord(message.getContent(), contained::add);
+            return contained.containsAll(this.words);
+        }
+
+        /**
+         * Finds the blocks that may contain a match, which are the blocks of the user and
+         * the blocks that contain all words.
+         */
+        @NotNull
+        private int[] candidates(@NotNull ArchiveIndex index) {
+            int[] blocks = null;
+            if (this.words.isEmpty()) {
+                blocks = new int[index.getBlockCount()];
+                Arrays.setAll(blocks, i -> i);
+            } else {
+                for (long word : this.words) {
+                    blocks = blocks == null ? index.getPostings(word) : intersect(blocks, index.getPostings(word));
+                }
+            }
+            return union(blocks, index.getPostings(ArchiveIndex.userKey(this.user)));
+        }
+    }
+
+    @NotNull
+    private List<ArchivedMessage> run(@NotNull String text, long since, int limit) throws IOException {
+        List<ArchivedMessage> found = new ArrayList<>();
+        if (text.isEmpty()) {
+            return found;
+        }
+        Query query = new Query(text, since);
+        LocalDate firstDay = since <= 0 ? LocalDate.MIN : Instant.ofEpochMilli(since).atZone(this.zone).toLocalDate();
+        TreeMap<LocalDate, Path> days = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "chat-*")) {
+            for (Path file : files) {
+                Matcher matcher = FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                LocalDate day = LocalDate.parse(matcher.group(1));
+                // Both files exist for a moment while a day is compressed, only one of them is searched
+                if (!day.isBefore(firstDay) && (matcher.group(2) == null || !days.containsKey(day))) {
+                    days.put(day, file);
+                }
+            }
+        }
+        for (Path file : days.descendingMap().values()) {
+            try {
+                if (file.getFileName().toString().endsWith(".gz")) {
+                    this.searchCompressed(file, query, limit, found);
+                } else {
+                    searchLines(Files.newBufferedReader(file, StandardCharsets.UTF_8), query, limit, found);
+                }
+            } catch (NoSuchFileException e) {
+                // Compressed in the meantime, the day is skipped rather than searched twice
+            }
+            if (found.size() >= limit) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    private void searchCompressed(@NotNull Path file, @NotNull Query query, int limit, @NotNull List<ArchivedMessage> found) throws IOException {
+        ArchiveIndex index = ArchiveIndex.openIfExists(file);
+        if (index == null) {
+            // Compressed before indexes existed
+            searchLines(new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file), 1 << 16),
+                    StandardCharsets.UTF_8)), query, limit, found);
+            return;
+        }
+        int[] blocks = query.candidates(index);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = blocks.length - 1; i >= 0 && found.size() < limit; i--) {
+                int block = blocks[i];
+                if (index.getLastTime(block) < query.since) {
+                    continue;
+                }
+                ByteBuffer data = ByteBuffer.allocate(index.getLength(block));
+                long position = index.getOffset(block);
+                while (data.hasRemaining() && channel.read(data, position + data.position()) >= 0) {
+                    // Read the whole block
+                }
+                searchLines(new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                        new ByteArrayInputStream(data.array(), 0, data.position())), StandardCharsets.UTF_8)), query, limit, found);
+            }
+        }
+    }
+
+    /**
+     * Adds the matches of the lines to the found messages, newest first.
+     */
+    private static void searchLines(@NotNull BufferedReader reader, @NotNull Query query, int limit,
+            @NotNull List<ArchivedMessage> found) throws IOException {
+        List<ArchivedMessage> matches = new ArrayList<>();
+        try (BufferedReader lines = reader) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                ArchivedMessage message = ArchivedMessage.parse(line);
+                if (message != null && query.matches(message)) {
+                    matches.add(message);
+                }
+            }
+        }
+        for (int i = matches.size() - 1; i >= 0 && found.size() < limit; i--) {
+            found.add(matches.get(i));
+        }
+    }
+
+    @NotNull
+    private static int[] intersect(@NotNull int[] a, @NotNull int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    @NotNull
+    private static int[] union(@NotNull int[] a, @NotNull int[] b) {
+        int[] result = new int[a.length + b.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[size++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
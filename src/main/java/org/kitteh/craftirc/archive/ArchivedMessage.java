@@ -0,0 +1,152 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.archive;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A message as it was written to the archive.
+ * @since 5.0.2
+ */
+public final class ArchivedMessage {
+    private final long time;
+    private final String bot;
+    private final boolean fromIRC;
+    private final String type;
+    private final String user;
+    private final String content;
+
+    private ArchivedMessage(long time, @NotNull String bot, boolean fromIRC, @NotNull String type, @NotNull String user,
+            @NotNull String content) {
+        this.time = time;
+        this.bot = bot;
+        this.fromIRC = fromIRC;
+        this.type = type;
+        this.user = user;
+        this.content = content;
+    }
+
+    /**
+     * Parses a line of an archive file.
+     *
+     * @param line the line without the line break
+     * @return the message, or null if the line is not a valid record
+     */
+    @Nullable
+    static ArchivedMessage parse(@NotNull String line) {
+        String[] fields = line.split("\t", 6);
+        if (fields.length != 6) {
+            return null;
+        }
+        try {
+            return new ArchivedMessage(Instant.parse(fields[0]).toEpochMilli(), unescape(fields[1]), fields[2].equals("irc"),
+                    fields[3], unescape(fields[4]), unescape(fields[5]));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @NotNull
+    private static String unescape(@NotNull String value) {
+        int index = value.indexOf('\\');
+        if (index < 0) {
+            return value;
+        }
+        StringBuilder text = new StringBuilder(value.length());
+        text.append(value, 0, index);
+        for (int i = index; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                text.append(c);
+                continue;
+            }
+            char escaped = value.charAt(++i);
+            text.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Gets when the message was bridged.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * Gets the name of the bot that bridged the message.
+     *
+     * @return the bot name
+     */
+    @NotNull
+    public String getBot() {
+        return this.bot;
+    }
+
+    /**
+     * Gets whether the message was bridged from IRC to Minestom.
+     *
+     * @return true if the message came from IRC, false if it came from Minestom
+     */
+    public boolean isFromIRC() {
+        return this.fromIRC;
+    }
+
+    /**
+     * Gets the type of the message, as the name of a {@link org.kitteh.craftirc.messaging.MessageType}.
+     *
+     * @return the type
+     */
+    @NotNull
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the user that caused the message.
+     *
+     * @return the user
+     */
+    @NotNull
+    public String getUser() {
+        return this.user;
+    }
+
+    /**
+     * Gets the content of the message.
+     *
+     * @return the content, empty for messages without content like joins
+     */
+    @NotNull
+    public String getContent() {
+        return this.content;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.messaging.BridgeListener;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.metrics.QueueOverflowEvent;
+import org.kitteh.craftirc.metrics.Trace;
+
+/**
+ * Writes the bridged chat into daily files.
+ * Records are queued by the bridge and written in batches by a background thread, so a slow disk never
+ * holds up the bridge. When the queue is full new records are dropped and counted. The file of the current
+ * day is synced to disk on a schedule and compressed with gzip once the day is over, see {@link ArchiveIndex}.
+ * Each record is a single line of tab separated fields: time, bot, direction, type, user and content.
+ * @since 5.0.2
+ */
+public final class ChatArchive {
+
+    /**
+     * The maximum amount of records written at once.
+     */
+    private static final int MAX_BATCH = 512;
+
+    private static final String PREFIX = "chat-";
+    private static final String SUFFIX = ".log";
+
+    private static final class Record {
+        private final long time;
+        private final String bot;
+        private final Trace.Direction direction;
+        private final MessageType type;
+        private final String user;
+        private final String content;
+
+        private Record(long time, @NotNull String bot, @NotNull Trace.Direction direction, @NotNull MessageType type,
+                @NotNull String user, @Nullable String content) {
+            this.time = time;
+            this.bot = bot;
+            this.direction = direction;
+            this.type = type;
+            this.user = user;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Wakes the writer up when the archive is shut down.
+     */
+    private static final Record STOP = new Record(0, "", Trace.Direction.TO_IRC, MessageType.CHAT, "", null);
+
+    private final Path directory;
+    private final int capacity;
+    private final long syncInterval;
+    private final BlockingQueue<Record> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final ExecutorService compressor;
+    private final Thread writer;
+    private final ArchiveSearch search;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile boolean running = true;
+    private FileChannel channel;
+    private LocalDate day;
+
+    /**
+     * Creates and starts a new archive.
+     *
+     * @param directory the directory the files are written to
+     * @param capacity the amount of records that may wait to be written
+     * @param syncInterval the time between two syncs to disk in milliseconds
+     * @throws IOException if the directory could not be created
+     */
+    public ChatArchive(@NotNull Path directory, int capacity, long syncInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.capacity = Math.max(capacity, 1);
+        this.syncInterval = Math.max(syncInterval, 1);
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.compressor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CraftIRC archive compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.search = new ArchiveSearch(this.directory);
+        this.compressLeftovers();
+        this.writer = new Thread(this::writeLoop, "CraftIRC archive writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a message to be archived.
+     *
+     * @param bot the name of the bot that bridged the message
+     * @param direction the direction the message was bridged in
+     * @param type the type of the message
+     * @param user the user that caused the message
+     * @param content the content of the message, null for messages without content like joins
+     */
+    public void record(@NotNull String bot, @NotNull Trace.Direction direction, @NotNull MessageType type,
+            @NotNull String user, @Nullable String content) {
+        if (!this.running) {
+            return;
+        }
+        if (!this.queue.offer(new Record(System.currentTimeMillis(), bot, direction, type, user, content))) {
+            QueueOverflowEvent.commit("archive", this.capacity, this.dropped.incrementAndGet());
+        }
+    }
+
+    /**
+     * Creates a listener that archives the messages of a bridge.
+     *
+     * @param bot the name of the bot the bridge belongs to
+     * @param direction the direction of the bridge
+     * @return the listener
+     */
+    @NotNull
+    public BridgeListener listener(@NotNull String bot, @NotNull Trace.Direction direction) {
+        return (type, user, content) -> this.record(bot, direction, type, user, content);
+    }
+
+    /**
+     * Gets the amount of records that were dropped because the writer could not keep up.
+     *
+     * @return dropped record count
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Gets the directory the files are written to.
+     *
+     * @return the directory
+     */
+    @NotNull
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Gets the search over the files of the archive.
+     *
+     * @return the search
+     */
+    @NotNull
+    public ArchiveSearch getSearch() {
+        return this.search;
+    }
+
+    /**
+     * Stops the archive after writing the records that are still queued.
+     */
+    public void shutdown() {
+        this.running = false;
+        // Not interrupting the writer, that would close the channel in the middle of a write
+        this.queue.offer(STOP);
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.compressor.shutdown();
+        this.search.shutdown();
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder text = new StringBuilder(1 << 14);
+        long nextSync = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.syncInterval);
+        boolean dirty = false;
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                Record first = this.running ? this.queue.poll(Math.max(nextSync - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                        : this.queue.poll();
+                if (first != null && first != STOP) {
+                    batch.add(first);
+                    this.queue.drainTo(batch, MAX_BATCH - 1);
+                    this.write(batch, text);
+                    batch.clear();
+                    dirty = true;
+                }
+                if (dirty && this.channel != null && System.nanoTime() - nextSync >= 0) {
+                    this.channel.force(false);
+                    dirty = false;
+                }
+                if (System.nanoTime() - nextSync >= 0) {
+                    nextSync = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.syncInterval);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                batch.clear();
+            }
+        }
+        try {
+            if (this.channel != null) {
+                this.channel.force(false);
+                this.channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(@NotNull List<Record> batch, @NotNull StringBuilder text) throws IOException {
+        for (Record record : batch) {
+            if (record == STOP) {
+                continue;
+            }
+            LocalDate recordDay = Instant.ofEpochMilli(record.time).atZone(this.zone).toLocalDate();
+            if (!recordDay.equals(this.day)) {
+                this.flush(text);
+                this.rotate(recordDay);
+            }
+            text.append(Instant.ofEpochMilli(record.time)).append('\t');
+            escape(record.bot, text).append('\t');
+            text.append(record.direction == Trace.Direction.TO_IRC ? "mc" : "irc").append('\t');
+            text.append(record.type.name()).append('\t');
+            escape(record.user, text).append('\t');
+            if (record.content != null) {
+                escape(record.content, text);
+            }
+            text.append('\n');
+        }
+        this.flush(text);
+    }
+
+    private void flush(@NotNull StringBuilder text) throws IOException {
+        if (text.length() == 0) {
+            return;
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(text.toString());
+        text.setLength(0);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    @NotNull
+    private static StringBuilder escape(@NotNull String value, @NotNull StringBuilder text) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                text.append("\\\\");
+                break;
+            case '\t':
+                text.append("\\t");
+                break;
+            case '\n':
+                text.append("\\n");
+                break;
+            case '\r':
+                text.append("\\r");
+                break;
+            default:
+                text.append(c);
+            }
+        }
+        return text;
+    }
+
+    private void rotate(@NotNull LocalDate newDay) throws IOException {
+        if (this.channel != null) {
+            this.channel.force(false);
+            this.channel.close();
+            Path finished = this.file(this.day);
+            this.compressor.execute(() -> compress(finished));
+        }
+        this.day = newDay;
+        this.channel = FileChannel.open(this.file(newDay), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @NotNull
+    private Path file(@NotNull LocalDate fileDay) {
+        return this.directory.resolve(PREFIX + fileDay + SUFFIX);
+    }
+
+    /**
+     * Compresses the files of earlier days that were left uncompressed, for example because the server stopped.
+     */
+    private void compressLeftovers() throws IOException {
+        Path today = this.file(LocalDate.now(this.zone));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!file.equals(today)) {
+                    this.compressor.execute(() -> compress(file));
+                }
+            }
+        }
+    }
+
+    private static void compress(@NotNull Path file) {
+        Path compressed = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            if (Files.exists(compressed)) {
+                // The server stopped after the file was compressed but before it was deleted
+                Files.delete(file);
+                return;
+            }
+            ArchiveIndex.write(file, compressed, ArchiveIndex.indexOf(compressed));
+            Files.delete(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -25,12 +25,30 @@
 package org.kitteh.craftirc.event;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.craftirc.irc.ChannelCommands;
+import org.kitteh.craftirc.irc.DedupCache;
+import org.kitteh.craftirc.irc.LaneExecutor;
+import org.kitteh.craftirc.irc.OriginMarker;
+import org.kitteh.craftirc.irc.PrivateMessages;
+import org.kitteh.craftirc.irc.UserStateTable;
+import org.kitteh.craftirc.irc.UserStateTable.UserState;
 import org.kitteh.craftirc.messaging.IRC2Minestom;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
+import org.kitteh.irc.client.library.element.MessageTag;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.element.CapabilityState;
+import org.kitteh.irc.client.library.event.capabilities.CapabilitiesSupportedListEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelKickEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
 import org.kitteh.irc.client.library.event.client.ClientAwayStatusChangeEvent;
+import org.kitteh.irc.client.library.event.user.UserAwayMessageEvent;
+import org.kitteh.irc.client.library.event.user.PrivateMessageEvent;
+import org.kitteh.irc.client.library.event.user.UserNickChangeEvent;
 import org.kitteh.irc.client.library.event.user.UserQuitEvent;
 
 import net.engio.mbassy.listener.Handler;
@@ -39,7 +57,12 @@ import net.engio.mbassy.listener.Invoke;
 public class IRCEventListener {
 
     public IRC2Minestom handlingInstance;
-    protected final boolean handleChat, handleJoins, handleQuits, handleKicks, handleAways;
+    protected final boolean handleChat, handleJoins, handleQuits, handleKicks, handleAways, handleNicks;
+    protected @Nullable ChannelCommands commands;
+    protected @NotNull UserStateTable users = new UserStateTable();
+    protected @Nullable DedupCache dedup;
+    protected @Nullable LaneExecutor executor;
+    protected @Nullable PrivateMessages privateMessages;
 
     /**
      * @deprecated Replaced with {@link #IRCEventListener(IRC2Minestom, boolean, boolean, boolean, boolean, boolean)}
@@ -54,6 +77,8 @@ public class IRCEventListener {
     }
 
     /**
+     * @deprecated Replaced with {@link #IRCEventListener(IRC2Minestom, boolean, boolean, boolean, boolean, boolean, boolean)}
+     *
      * Creates a new IRCEventListener which listens to the given interactions in IRC.
      * @param irc2m The IRC to Minestom bridge to use
      * @param chat True if chat inside the IRC channel should be listened to
@@ -63,117 +88,348 @@ public class IRCEventListener {
      * @param away True if the listener should process when a user marks himself to be away
      * @since 5.0.1
      */
+    @Deprecated(forRemoval = true, since = "5.0.2")
     public IRCEventListener(IRC2Minestom irc2m, boolean chat, boolean join, boolean part, boolean kick, boolean away) {
+        this(irc2m, chat, join, part, kick, away, false);
+    }
+
+    /**
+     * Creates a new IRCEventListener which listens to the given interactions in IRC.
+     * @param irc2m The IRC to Minestom bridge to use
+     * @param chat True if chat inside the IRC channel should be listened to
+     * @param join True if the listener should process channel joins
+     * @param part True if the listener should process channel disconnects
+     * @param kick True if the listener should process channel kicks
+     * @param away True if the listener should process when a user marks himself to be away
+     * @param nick True if the listener should process nick changes
+     * @since 5.0.2
+     */
+    public IRCEventListener(IRC2Minestom irc2m, boolean chat, boolean join, boolean part, boolean kick, boolean away, boolean nick) {
         handlingInstance = irc2m;
         handleChat = chat;
         handleJoins = join;
         handleQuits = part;
         handleKicks = kick;
         handleAways = away;
+        handleNicks = nick;
+    }
+
+    /**
+     * Sets the table the state of the IRC users is kept in, so it can be shared with the bot.
+     * @param table The user state table of the bot
+     * @since 5.0.2
+     */
+    public void setUsers(@NotNull UserStateTable table) {
+        users = table;
+    }
+
+    /**
+     * Sets the cache used to drop messages that the IRC server delivers more than once, which is
+     * keyed on the msgid tag of the message.
+     * @param cache The dedup cache of the bot, or null to not drop duplicates
+     * @since 5.0.2
+     */
+    public void setDedup(@Nullable DedupCache cache) {
+        dedup = cache;
+    }
+
+    /**
+     * Sets the executor the events are handled on. The handlers only hand the events over to the lane of
+     * their channel, so events of a channel reach Minestom in the order they were received while channels
+     * and bots are handled in parallel.
+     * @param laneExecutor The executor of the bot, or null to handle the events on the thread of the IRC client
+     * @since 5.0.2
+     */
+    public void setExecutor(@Nullable LaneExecutor laneExecutor) {
+        executor = laneExecutor;
+    }
+
+    private void dispatch(@NotNull String lane, @NotNull Runnable task) {
+        LaneExecutor current = executor;
+        if (current == null) {
+            task.run();
+        } else {
+            current.execute(lane, task);
+        }
+    }
+
+    /**
+     * Sets the bridge private messages to the bot are passed to.
+     * @param messages The private message bridge of the bot, or null to ignore private messages
+     * @since 5.0.2
+     */
+    public void setPrivateMessages(@Nullable PrivateMessages messages) {
+        privateMessages = messages;
+    }
+
+    /**
+     * Gets the lane of events that concern a user rather than a channel, which is the lane of one of
+     * the channels the user shares with the bot.
+     */
+    private static @NotNull String laneOf(@NotNull User user) {
+        for (String channel : user.getChannels()) {
+            return channel;
+        }
+        return "";
+    }
+
+    /**
+     * Sets the commands that IRC users can issue within the channel. Messages that are commands
+     * are answered by the bot and not relayed to Minestom.
+     * @param channelCommands The commands to answer, or null to not answer any commands
+     * @since 5.0.2
+     */
+    public void setCommands(@Nullable ChannelCommands channelCommands) {
+        commands = channelCommands;
     }
 
     /**
      * Event handler for user messaging within the IRC client. 
      * Messages from the bot should not be passed to the method however as they would create a deadlock.
-     * It is recommended to perform this action asynchronously because why not?
+     * The message is handed to the lane of it's channel, see {@link #setExecutor(LaneExecutor)}.
      * @param event The event to pass
      * @since 5.0.0
      */
-    @Handler(delivery = Invoke.Asynchronously)
+    @Handler(delivery = Invoke.Synchronously)
     public void message(@NotNull ChannelMessageEvent event) {
-        if (!handleChat) {
-            return;
-        }
+        users.getOrCreate(event.getActor().getNick());
+        LatencyTracer tracer = handlingInstance.getTracer();
+        Trace trace = tracer == null ? null : tracer.begin(Trace.Direction.TO_MINESTOM);
+        dispatch(event.getChannel().getName(), () -> handleMessage(event, trace));
+    }
+
+    private void handleMessage(@NotNull ChannelMessageEvent event, @Nullable Trace trace) {
         try {
-            handlingInstance.issueMessage(event.getActor().getNick(), event.getMessage());
+            String message = event.getMessage();
+            if (OriginMarker.isOwnMarker(message)
+                    || event.getSource().getTag(OriginMarker.TAG).flatMap(MessageTag::getValue)
+                        .filter(OriginMarker.getTagValue()::equals).isPresent()) {
+                return; // Our own message that came back to us
+            }
+            if (dedup != null) {
+                String msgid = event.getSource().getTag("msgid").flatMap(MessageTag::getValue).orElse(null);
+                if (msgid != null && !dedup.add(DedupCache.key(msgid))) {
+                    return;
+                }
+            }
+            message = OriginMarker.strip(message);
+            if (commands != null && commands.handle(event.getChannel().getName(), message)) {
+                return;
+            }
+            if (!handleChat) {
+                return;
+            }
+            handlingInstance.issueMessage(event.getActor().getNick(), message, trace);
         } catch (RuntimeException e) {
             // TODO logger
             e.printStackTrace();
         }
     }
 
+    /**
+     * Event handler for private messages to the bot, which are passed to the private message bridge.
+     * The message is handed to the lane of a channel the user shares with the bot, see {@link #setExecutor(LaneExecutor)}.
+     * @param event The event to pass
+     * @since 5.0.2
+     */
+    @Handler(delivery = Invoke.Synchronously)
+    public void privateMessage(@NotNull PrivateMessageEvent event) {
+        PrivateMessages messages = privateMessages;
+        if (messages == null) {
+            return;
+        }
+        String nick = event.getActor().getNick();
+        messages.correspond(nick);
+        dispatch(laneOf(event.getActor()), () -> {
+            try {
+                messages.fromIRC(nick, event.getMessage());
+            } catch (RuntimeException e) {
+                CraftIRC.log().warn(String.format("Could not handle the private message of %s", nick), e);
+            }
+        });
+    }
+
     /**
      * Event handler for user connections.
-     * It is recommended to perform this action asynchronously because why not?
+     * The join is handed to the lane of it's channel, see {@link #setExecutor(LaneExecutor)}.
      * @param event The event to pass
      * @since 5.0.1
      */
-    @Handler(delivery = Invoke.Asynchronously)
+    @Handler(delivery = Invoke.Synchronously)
     public void join(@NotNull ChannelJoinEvent event) {
+        String nick = event.getActor().getNick();
+        users.getOrCreate(nick);
         if (!handleJoins) {
             return;
         }
-        try {
-            handlingInstance.issueJoin(event.getActor().getNick());
-        } catch (RuntimeException e) {
-            // TODO logger
-            e.printStackTrace();
-        }
+        dispatch(event.getChannel().getName(), () -> {
+            try {
+                handlingInstance.issueJoin(nick);
+            } catch (RuntimeException e) {
+                // TODO logger
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
      * Event handler for user parts.
-     * It is recommended to perform this action asynchronously because why not?
+     * The part is handed to the lane of it's channel, see {@link #setExecutor(LaneExecutor)}.
      * @param event The event to pass
      * @since 5.0.1
      */
-    @Handler(delivery = Invoke.Asynchronously)
+    @Handler(delivery = Invoke.Synchronously)
     public void disconnection(@NotNull ChannelPartEvent event) {
+        String nick = event.getActor().getNick();
+        users.remove(nick);
         if (!handleQuits) {
             return;
         }
-        try {
-            handlingInstance.issueQuit(event.getActor().getNick(), event.getMessage(), false);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        dispatch(event.getChannel().getName(), () -> {
+            try {
+                handlingInstance.issueQuit(nick, event.getMessage(), false);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
      * Event handler for user kicks.
-     * It is recommended to perform this action asynchronously because why not?
+     * The kick is handed to the lane of it's channel, see {@link #setExecutor(LaneExecutor)}.
      * @param event The event to pass
      * @since 5.0.1
      */
-    @Handler(delivery = Invoke.Asynchronously)
+    @Handler(delivery = Invoke.Synchronously)
     public void kick(@NotNull ChannelKickEvent event) {
+        users.remove(event.getTarget().getNick());
         if (!handleKicks) {
             return;
         }
-        try {
-            handlingInstance.issueQuit(event.getActor().getName(), event.getMessage(), true);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        dispatch(event.getChannel().getName(), () -> {
+            try {
+                handlingInstance.issueQuit(event.getActor().getName(), event.getMessage(), true);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
      * Event handler for user quits (as they left the entire network).
-     * It is recommended to perform this action asynchronously because why not?
+     * The quit is handed to the lane of a channel the user was in, see {@link #setExecutor(LaneExecutor)}.
      * @param event The event to pass
      * @since 5.0.1
      */
-    @Handler(delivery = Invoke.Asynchronously)
+    @Handler(delivery = Invoke.Synchronously)
     public void kick(@NotNull UserQuitEvent event) {
+        String nick = event.getActor().getNick();
+        users.remove(nick);
         if (!handleQuits) {
             return;
         }
-        try {
-            handlingInstance.issueQuit(event.getActor().getNick(), event.getMessage(), false);
-        } catch (Exception e) {
-            e.printStackTrace();
+        dispatch(laneOf(event.getActor()), () -> {
+            try {
+                handlingInstance.issueQuit(nick, event.getMessage(), false);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Requests the message-tags, batch and draft/multiline capabilities where the server supports them.
+     * Message tags allow the origin of messages sent by the bot to be passed as a client tag and
+     * the msgid of incoming messages to be known, batches allow multi-line messages to be sent at once.
+     * @param event The event to pass
+     * @since 5.0.2
+     */
+    @Handler(delivery = Invoke.Synchronously)
+    public void capabilities(@NotNull CapabilitiesSupportedListEvent event) {
+        for (CapabilityState capability : event.getSupportedCapabilities()) {
+            switch (capability.getName()) {
+            case "message-tags":
+            case "batch":
+            case "draft/multiline":
+                event.addRequest(capability.getName());
+                break;
+            default:
+                break;
+            }
         }
     }
 
     /**
-     * @deprecated Does not appear to work
-     * Event handler for when a user marks himself to be away.
-     * It is recommended to perform this action asynchronously because why not?
+     * Event handler for when a channel member marks himself to be away or returns.
+     * The events are sent by the server through the away-notify capability, which the client negotiates
+     * by default, so no polling is required. Only actual changes of the away state are passed on, which
+     * filters out repeated away replies for users that are already known to be away.
+     * The handler is invoked synchronously so that the changes of the same user are processed in order.
+     * @param event The event to pass
+     * @since 5.0.2
+     */
+    @Handler(delivery = Invoke.Synchronously)
+    public void userAway(@NotNull UserAwayMessageEvent event) {
+        if (!handleAways || event.getActor().getChannels().isEmpty()) {
+            // Only track users that share a channel with the bot, away replies to private messages are not interesting
+            return;
+        }
+        String nick = event.getActor().getNick();
+        if (event.isAway()) {
+            if (users.getOrCreate(nick).setAway(true)) {
+                dispatch(laneOf(event.getActor()), () -> {
+                    try {
+                        handlingInstance.issueAway(nick);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        } else {
+            UserState state = users.get(nick);
+            if (state != null && state.setAway(false)) {
+                dispatch(laneOf(event.getActor()), () -> {
+                    try {
+                        handlingInstance.issueBack(nick);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Event handler for nick changes. The state that is tracked for the user is moved to the new nick.
+     * The handler is invoked synchronously so that later events of the user find the state under the new nick.
+     * @param event The event to pass
+     * @since 5.0.2
+     */
+    @Handler(delivery = Invoke.Synchronously)
+    public void nickChange(@NotNull UserNickChangeEvent event) {
+        String oldNick = event.getOldUser().getNick();
+        String newNick = event.getNewUser().getNick();
+        users.rename(oldNick, newNick);
+        if (!handleNicks) {
+            return;
+        }
+        dispatch(laneOf(event.getNewUser()), () -> {
+            try {
+                handlingInstance.issueNick(oldNick, newNick);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Event handler for when the bot is marked to be away.
      * @param event The event to pass
      * @since 5.0.1
+     * @deprecated This event reports the away status of the bot itself, not the status of the channel members.
+     * Replaced with {@link #userAway(UserAwayMessageEvent)} and no longer registered as a handler.
      */
-    @Deprecated(forRemoval = false, since = "5.0.1")
-    @Handler(delivery = Invoke.Asynchronously)
+    @Deprecated(forRemoval = true, since = "5.0.2")
     public void away(ClientAwayStatusChangeEvent event) {
         if (!handleAways) {
             return;
@@ -24,8 +24,15 @@
  */
 package org.kitteh.craftirc.event;
 
+import java.util.function.Function;
+
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.irc.DedupCache;
 import org.kitteh.craftirc.messaging.Minestom2IRC;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
 
+import net.minestom.server.chat.JsonMessage;
 import net.minestom.server.event.player.PlayerChatEvent;
 import net.minestom.server.event.player.PlayerDisconnectEvent;
 import net.minestom.server.event.player.PlayerLoginEvent;
@@ -33,16 +40,51 @@ import net.minestom.server.event.player.PlayerLoginEvent;
 public final class MinestomEventListener {
 
     private final Minestom2IRC reportingInstance;
+    private final @Nullable DedupCache dedup;
+    private volatile boolean relayComponents;
 
     public MinestomEventListener(Minestom2IRC m2irc) {
+        this(m2irc, null);
+    }
+
+    /**
+     * Creates a new listener that drops chat events it has already reported, so the same event never reaches
+     * IRC twice even if it is passed to the listener more than once.
+     * @param m2irc The Minestom to IRC bridge to use
+     * @param cache The dedup cache of the bot, or null to not drop duplicates
+     * @since 5.0.2
+     */
+    public MinestomEventListener(Minestom2IRC m2irc, @Nullable DedupCache cache) {
         reportingInstance = m2irc;
+        dedup = cache;
+    }
+
+    /**
+     * Sets whether the chat as rendered by the chat format of another extension is relayed instead of the plain
+     * message. The rendered component usually contains the name of the player already.
+     * @param relay True to relay the rendered chat component where there is one
+     * @since 5.0.2
+     */
+    public void setRelayComponents(boolean relay) {
+        relayComponents = relay;
     }
 
     public final void onPlayerChat(PlayerChatEvent event) {
         // TODO also allow for nicks sometime in the future
         // TODO logger
+        LatencyTracer tracer = reportingInstance.getTracer();
+        Trace trace = tracer == null ? null : tracer.begin(Trace.Direction.TO_IRC);
         try {
-            reportingInstance.issueMessage(event.getPlayer().getUsername(), event.getMessage());
+            if (dedup != null && !dedup.add(((long) System.identityHashCode(event) << 32)
+                    ^ DedupCache.key(event.getPlayer().getUsername() + '\0' + event.getMessage()))) {
+                return;
+            }
+            Function<PlayerChatEvent, JsonMessage> chatFormat = relayComponents ? event.getChatFormatFunction() : null;
+            if (chatFormat != null) {
+                reportingInstance.issueMessage(event.getPlayer().getUsername(), chatFormat.apply(event), trace);
+                return;
+            }
+            reportingInstance.issueMessage(event.getPlayer().getUsername(), event.getMessage(), trace);
         } catch (RuntimeException e) {
             e.printStackTrace();
         }
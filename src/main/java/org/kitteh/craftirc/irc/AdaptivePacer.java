@@ -0,0 +1,161 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.metrics.PacingEvent;
+
+/**
+ * Adapts the interval of an {@link OutboundQueue} to the flood policy of the network.
+ * The interval is doubled when the server complains about flooding and quadrupled when it closes the connection for
+ * an excess flood. While the bot keeps sending as fast as the interval allows it is lowered again in small steps,
+ * but not down to the interval that was last throttled, unless that was long ago. The interval therefore settles
+ * just above the fastest rate the network accepts.
+ * @since 5.0.2
+ */
+public final class AdaptivePacer {
+
+    /**
+     * The amount the interval is lowered by per probe, in milliseconds.
+     */
+    private static final long PROBE_STEP = 25;
+
+    /**
+     * The amount of lines that have to be sent at the full rate before the interval is lowered.
+     */
+    private static final int PROBE_LINES = 50;
+
+    /**
+     * The time after a back off before the interval is lowered again.
+     */
+    private static final long PROBE_DELAY = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * The time during which further complaints are attributed to the same burst and ignored.
+     */
+    private static final long BACKOFF_HOLD = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The time after which a throttled interval is probed again.
+     */
+    private static final long CEILING_LIFETIME = TimeUnit.MINUTES.toNanos(10);
+
+    private final String name;
+    private final OutboundQueue queue;
+    private final long minInterval;
+    private final long maxInterval;
+    /**
+     * The time of the last back off, starting out as long ago as probing requires so that neither a throttle notice
+     * right after the start is ignored nor probing is held off.
+     */
+    private long lastBackOff = System.nanoTime() - PROBE_DELAY;
+    private long ceiling;
+    private int fullRateLines;
+
+    /**
+     * Creates a new pacer, starting with the current interval of the queue.
+     *
+     * @param name the name of the bot
+     * @param queue the queue to pace
+     * @param minInterval the lowest interval in milliseconds
+     * @param maxInterval the highest interval in milliseconds
+     */
+    public AdaptivePacer(@NotNull String name, @NotNull OutboundQueue queue, long minInterval, long maxInterval) {
+        this.name = name;
+        this.queue = queue;
+        this.minInterval = Math.max(minInterval, 0);
+        this.maxInterval = Math.max(maxInterval, this.minInterval);
+    }
+
+    /**
+     * Backs off because the server sent a throttling notice.
+     *
+     * @param reason the notice
+     */
+    public synchronized void throttled(@NotNull String reason) {
+        this.backOff(2, reason);
+    }
+
+    /**
+     * Backs off because the server closed the connection for an excess flood.
+     */
+    public synchronized void flooded() {
+        this.backOff(4, "Excess Flood");
+    }
+
+    private void backOff(int factor, @NotNull String reason) {
+        long now = System.nanoTime();
+        if (now - this.lastBackOff < BACKOFF_HOLD) {
+            return;
+        }
+        this.lastBackOff = now;
+        this.fullRateLines = 0;
+        long current = this.queue.getInterval();
+        this.ceiling = current;
+        this.set(Math.min(this.maxInterval, Math.max(current * factor, current + PROBE_STEP)), reason);
+    }
+
+    /**
+     * Informs the pacer that lines were sent.
+     *
+     * @param lines the amount of lines
+     * @param limited whether the lines had to wait for the interval, which is when a shorter interval would help
+     */
+    synchronized void sent(int lines, boolean limited) {
+        if (!limited) {
+            return;
+        }
+        this.fullRateLines += lines;
+        long now = System.nanoTime();
+        if (this.fullRateLines < PROBE_LINES || now - this.lastBackOff < PROBE_DELAY) {
+            return;
+        }
+        this.fullRateLines = 0;
+        long current = this.queue.getInterval();
+        long next = Math.max(this.minInterval, current - PROBE_STEP);
+        if (this.ceiling != 0 && now - this.lastBackOff < CEILING_LIFETIME) {
+            next = Math.max(next, this.ceiling + PROBE_STEP);
+        }
+        if (next < current) {
+            this.set(next, "probe");
+        }
+    }
+
+    private void set(long interval, @NotNull String reason) {
+        this.queue.setInterval(interval);
+        PacingEvent.commit(this.name, interval, reason);
+    }
+
+    /**
+     * Gets the interval that was last throttled by the server.
+     *
+     * @return the interval in milliseconds, or 0 if the server did not throttle the bot yet
+     */
+    public synchronized long getCeiling() {
+        return this.ceiling;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.event.client.ClientNegotiationCompleteEvent;
+import org.kitteh.irc.client.library.event.client.ClientReceiveNumericEvent;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Holds back the channel joins of a bot until it is logged in to it's account, so the bot does not join
+ * channels that require an identified user, or show up without it's cloak, before it is identified.
+ * With SASL the login completes during registration and the channels are joined right after it. With NickServ
+ * the gate waits for the server to confirm the login, or for a timeout on servers that do not confirm it.
+ */
+final class AuthGate {
+    private static final int RPL_LOGGEDIN = 900;
+    private static final int RPL_SASLSUCCESS = 903;
+    private static final int ERR_SASLFAIL = 904;
+    private static final int ERR_SASLTOOLONG = 905;
+
+    private final String name;
+    private final Client client;
+    private final boolean waitForLogin;
+    private final long timeout;
+    private final List<String> channels = new ArrayList<>();
+    private boolean released;
+
+    /**
+     * Creates a new gate.
+     *
+     * @param name the name of the bot
+     * @param client the client of the bot
+     * @param waitForLogin whether the login is only confirmed after registration, which is the case with NickServ
+     * @param timeout the time to wait for the login after registration in milliseconds
+     */
+    AuthGate(@NotNull String name, @NotNull Client client, boolean waitForLogin, long timeout) {
+        this.name = name;
+        this.client = client;
+        this.waitForLogin = waitForLogin;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Adds a channel that is joined once the bot is logged in, or right away if it is already.
+     *
+     * @param channel the channel
+     */
+    synchronized void addChannel(@NotNull String channel) {
+        if (this.released) {
+            this.client.addChannel(channel);
+        } else {
+            this.channels.add(channel);
+        }
+    }
+
+    private synchronized void release() {
+        if (this.released) {
+            return;
+        }
+        this.released = true;
+        if (!this.channels.isEmpty()) {
+            this.client.addChannel(this.channels.toArray(new String[0]));
+            this.channels.clear();
+        }
+    }
+
+    @Handler
+    public void registered(@NotNull ClientNegotiationCompleteEvent event) {
+        if (!this.waitForLogin) {
+            this.release();
+            return;
+        }
+        CompletableFuture.delayedExecutor(this.timeout, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (this) {
+                if (this.released) {
+                    return;
+                }
+                CraftIRC.log().warn(String.format("Bot %s was not logged in after %d seconds, joining the channels anyway",
+                        this.name, TimeUnit.MILLISECONDS.toSeconds(this.timeout)));
+                this.release();
+            }
+        });
+    }
+
+    @Handler
+    public void numeric(@NotNull ClientReceiveNumericEvent event) {
+        switch (event.getNumeric()) {
+        case RPL_LOGGEDIN:
+        case RPL_SASLSUCCESS:
+            this.release();
+            break;
+        case ERR_SASLFAIL:
+        case ERR_SASLTOOLONG:
+            CraftIRC.log().warn(String.format("SASL authentication of bot %s failed", this.name));
+            break;
+        default:
+        }
+    }
+}
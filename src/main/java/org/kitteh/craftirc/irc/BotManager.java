@@ -27,34 +27,73 @@ package org.kitteh.craftirc.irc;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.craftirc.archive.ChatArchive;
 import org.kitteh.craftirc.event.IRCEventListener;
 import org.kitteh.craftirc.event.MinestomEventListener;
+import org.kitteh.craftirc.messaging.BridgeListener;
+import org.kitteh.craftirc.messaging.ChatHistory;
+import org.kitteh.craftirc.messaging.IRC2Minestom;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.messaging.Minestom2IRC;
+import org.kitteh.craftirc.messaging.formatting.ComponentConverter;
 import org.kitteh.craftirc.messaging.formatting.IRCChatFormatter;
 import org.kitteh.craftirc.messaging.formatting.MinestomChatFormatter;
+import org.kitteh.craftirc.messaging.formatting.Template;
 import org.kitteh.craftirc.messaging.processing.IRCColor;
+import org.kitteh.craftirc.messaging.processing.LinkDetector;
+import org.kitteh.craftirc.messaging.processing.MentionHighlighter;
 import org.kitteh.craftirc.messaging.processing.MessageProcessingStage;
+import org.kitteh.craftirc.messaging.processing.Preprocessor;
+import org.kitteh.craftirc.messaging.processing.WordFilter;
+import org.kitteh.craftirc.messaging.transport.InstanceScope;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
+import org.kitteh.craftirc.relay.RelayClient;
+import org.kitteh.craftirc.relay.RelayHub;
 import org.kitteh.irc.client.library.Client;
 import org.kitteh.irc.client.library.Client.Builder.Server.SecurityType;
 import org.kitteh.irc.client.library.feature.auth.NickServ;
+import org.kitteh.irc.client.library.feature.auth.SaslExternal;
+import org.kitteh.irc.client.library.feature.auth.SaslPlain;
 import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
 
 import net.minestom.server.MinecraftServer;
+import net.minestom.server.chat.JsonMessage;
+import net.minestom.server.entity.Player;
 import net.minestom.server.event.player.PlayerChatEvent;
 import net.minestom.server.event.player.PlayerDisconnectEvent;
 import net.minestom.server.event.player.PlayerLoginEvent;
+import net.minestom.server.event.player.PlayerSpawnEvent;
+import net.minestom.server.instance.Instance;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages IRC bots.
  */
 public final class BotManager {
     private final Map<String, IRCBot> bots = new ConcurrentHashMap<>();
+    private final PlayerHooks playerHooks = new PlayerHooks();
     public final Map<String, MinestomEventListener> listeners = new ConcurrentHashMap<>();
+    private MentionHighlighter mentionHighlighter;
+    private PlayerIndex playerIndex;
+    private ChatHistory history;
+    private boolean historyHasChat;
+    private final Set<MessageType> archivedMinecraft = EnumSet.noneOf(MessageType.class);
+    private ServerSnapshot snapshot;
+    private RelayHub relayHub;
+    private RelayClient relayClient;
+    private ChatArchive archive;
 
     /**
      * Initialised by {@link CraftIRC} main.
@@ -65,8 +104,67 @@ public final class BotManager {
         this.loadBots(bots);
     }
 
+    /**
+     * Initialised by {@link CraftIRC} main.
+     *
+     * @param bots list of bot data to load
+     * @param relay the relay configuration
+     * @throws IOException if the relay hub could not be started
+     */
+    public BotManager(@NotNull List<? extends ConfigurationNode> bots, @NotNull ConfigurationNode relay) throws IOException {
+        this(bots, relay, null);
+    }
+
+    /**
+     * Initialised by {@link CraftIRC} main.
+     *
+     * @param bots list of bot data to load
+     * @param relay the relay configuration
+     * @param archive the archive the bridged chat of all bots is written to, or null to not archive the chat
+     * @throws IOException if the relay hub could not be started
+     * @since 5.0.2
+     */
+    public BotManager(@NotNull List<? extends ConfigurationNode> bots, @NotNull ConfigurationNode relay,
+            @Nullable ChatArchive archive) throws IOException {
+        this.archive = archive;
+        String mode = relay.node("mode").getString("none").toLowerCase();
+        if (mode.equals("client")) {
+            this.relayClient = new RelayClient(relay.node("host").getString("127.0.0.1"),
+                    relay.node("port").getInt(25590),
+                    relay.node("name").getString("client"),
+                    relay.node("secret").getString(""));
+        }
+        this.loadBots(bots);
+        String secret = relay.node("secret").getString("");
+        if (mode.equals("hub") && secret.isEmpty()) {
+            CraftIRC.log().warn("Not starting the relay hub, relay.secret is not set");
+        } else if (mode.equals("hub")) {
+            try {
+                this.relayHub = new RelayHub(this, relay.node("host").getString("127.0.0.1"), relay.node("port").getInt(25590), secret);
+            } catch (IOException e) {
+                // The caller never gets a bot manager to shut down, so the bots that were already connected have to go now
+                this.shutdown();
+                throw e;
+            }
+            this.bots.values().forEach(this.relayHub::forward);
+        } else if (this.relayClient != null) {
+            this.relayClient.start(this);
+        }
+    }
+
     public void shutdown() {
+        if (this.relayHub != null) {
+            this.relayHub.shutdown();
+        }
+        if (this.relayClient != null) {
+            this.relayClient.shutdown();
+        }
         bots.forEach((name, bot) -> bot.shutdown());
+        this.playerHooks.shutdown();
+        this.history = null;
+        if (this.snapshot != null) {
+            this.snapshot.shutdown();
+        }
     }
 
     /**
@@ -118,6 +216,245 @@ public final class BotManager {
     }
 
     private void addBot(@NotNull String name, @NotNull ConfigurationNode data) {
+        final LatencyTracer tracer = new LatencyTracer(data.node("debug-output", "trace-sample-rate").getInt(0));
+        final int threads = data.node("executor", "threads").getInt(2);
+        final ConfigurationNode outbound = data.node("outbound");
+        final IRCBot bot = this.relayClient == null ? new IRCBot(name, this.createClient(name, data, tracer), tracer, threads,
+                outbound.node("capacity").getInt(64), outbound.node("interval").getLong(500), outbound.node("burst").getInt(4))
+                : new IRCBot(name, this.relayClient, tracer, threads);
+
+        ConfigurationNode events = data.node("event");
+        ConfigurationNode format = data.node("format");
+        ConfigurationNode processors = data.node("processors");
+
+        // register formatters, before anything else so a bot with an invalid format is not started at all
+        final String channel = data.node("channel").getString("");
+        final PlayerIndex players = this.getPlayerIndex();
+        Template.Vocabulary<Minestom2IRC.Message> ircVocabulary = IRCChatFormatter.vocabulary()
+                .placeholder("channel", msg -> channel)
+                .placeholder("displayname", msg -> {
+                    Player player = players.get(msg.getUser());
+                    JsonMessage displayName = player == null ? null : player.getDisplayName();
+                    return displayName == null ? msg.getUser() : ComponentConverter.toIRC(displayName.getJsonObject());
+                })
+                .placeholder("instance", msg -> {
+                    Player player = players.get(msg.getUser());
+                    return player == null || player.getInstance() == null ? "" : instanceName(player.getInstance());
+                })
+                .placeholder("ping", msg -> {
+                    Player player = players.get(msg.getUser());
+                    return player == null ? "" : Integer.toString(player.getLatency());
+                })
+                .condition("op", msg -> {
+                    Player player = players.get(msg.getUser());
+                    return player != null && player.getPermissionLevel() >= 2;
+                });
+        Template.Vocabulary<IRC2Minestom.Message> mcVocabulary = MinestomChatFormatter.vocabulary()
+                .placeholder("channel", msg -> channel)
+                .placeholder("instance", msg -> "")
+                .placeholder("ping", msg -> {
+                    // The lag of the connection to the IRC server
+                    ConnectionWatchdog watchdog = bot.getWatchdog();
+                    return watchdog == null || watchdog.getLag() < 0 ? "" : Long.toString(watchdog.getLag());
+                })
+                .condition("op", msg -> bot.isOperator(channel, msg.getUser()));
+        final String mcJoin = format.node("mc-join").getString("{#dark_red}*{#red}IRC {#yellow}${user} joined.");
+        final String mcQuit = format.node("mc-quit").getString("{#dark_red}*{#red}IRC {#yellow}${user} left (${msg}).");
+        final Template<IRC2Minestom.Message> toPlayer;
+        final Template<Minestom2IRC.Message> toIRC;
+        try {
+            bot.getToIRC().registerProcessor(MessageProcessingStage.FORMAT, 
+                    new IRCChatFormatter(format.node("irc-chat").getString("\u00037${user}:\u0003 ${msg}"), 
+                            format.node("irc-join").getString("\u00037${user} joined."), 
+                            format.node("irc-quit").getString("\u00037${user} left."),
+                            ircVocabulary));
+            bot.getToMinestom().registerProcessor(MessageProcessingStage.FORMAT, 
+                    new MinestomChatFormatter(format.node("mc-chat").getString("{#dark_red}*{#red}IRC {#white}<${user}>: ${msg}"), 
+                            mcJoin, 
+                            mcQuit,
+                            format.node("mc-kick").getString(mcQuit),
+                            format.node("mc-away").getString(mcQuit),
+                            format.node("mc-back").getString(mcJoin),
+                            format.node("mc-nick").getString("${user} is now known as ${msg}."),
+                            mcVocabulary));
+            toPlayer = Template.compile(format.node("mc-private")
+                    .getString("{#dark_red}*{#red}IRC {#gray}${user} whispers to you: ${msg}"), mcVocabulary);
+            toIRC = Template.compile(format.node("irc-private").getString("${user} whispers to you: ${msg}"), ircVocabulary);
+        } catch (IllegalArgumentException e) {
+            CraftIRC.log().warn(String.format("Invalid format for bot %s, not starting it: %s", name, e.getMessage()));
+            bot.shutdown();
+            return;
+        }
+
+        // register IRC events, relayed bots receive them from the hub instead
+        IRCEventListener ircEvents = null;
+        if (bot.getClient() != null) {
+            ircEvents = new IRCEventListener(bot.getToMinestom(), 
+                    events.node("irc-chat").getBoolean(),
+                    events.node("irc-join").getBoolean(),
+                    events.node("irc-quit").getBoolean(),
+                    events.node("irc-kick").getBoolean(),
+                    events.node("irc-away").getBoolean(),
+                    events.node("irc-nick").getBoolean());
+            ircEvents.setUsers(bot.getUsers());
+            ircEvents.setDedup(bot.getDedup());
+            ircEvents.setExecutor(bot.getExecutor());
+            if (events.node("irc-commands").getBoolean()) {
+                ConfigurationNode commands = data.node("commands");
+                ircEvents.setCommands(new ChannelCommands(bot, this.getSnapshot(),
+                        commands.node("prefix").getString("!"),
+                        commands.node("cooldown").getInt(10)));
+            }
+            bot.getClient().getEventManager().registerEventListener(ircEvents);
+            bot.getClient().getEventManager().registerEventListener(new ConnectionListener(name));
+            String mechanism = authMechanism(data.node("auth"));
+            if (!mechanism.equals("none")) {
+                AuthGate gate = new AuthGate(name, bot.getClient(),
+                        mechanism.equals("nickserv") || mechanism.equals("nickless"),
+                        TimeUnit.SECONDS.toMillis(data.node("auth", "timeout").getInt(10)));
+                bot.setAuthGate(gate);
+                bot.getClient().getEventManager().registerEventListener(gate);
+            }
+            ConfigurationNode watchdog = data.node("watchdog");
+            if (watchdog.node("enabled").getBoolean(true)) {
+                ConnectionWatchdog connectionWatchdog = new ConnectionWatchdog(name, bot.getClient(),
+                        TimeUnit.SECONDS.toMillis(watchdog.node("interval").getInt(30)),
+                        TimeUnit.SECONDS.toMillis(watchdog.node("timeout").getInt(120)));
+                bot.setWatchdog(connectionWatchdog);
+                bot.getClient().getEventManager().registerEventListener(connectionWatchdog);
+            }
+            ConfigurationNode adaptive = outbound.node("adaptive");
+            if (adaptive.node("enabled").getBoolean(true)) {
+                AdaptivePacer pacer = new AdaptivePacer(name, bot.getOutbound(),
+                        adaptive.node("min-interval").getLong(200), adaptive.node("max-interval").getLong(5000));
+                bot.getOutbound().setPacer(pacer);
+                bot.getClient().getEventManager().registerEventListener(new FloodListener(pacer));
+            }
+        }
+
+        // register minecraft events
+        MinestomEventListener mcEvents = new MinestomEventListener(bot.getToIRC(), bot.getDedup());
+        mcEvents.setRelayComponents(events.node("mc-chat-components").getBoolean());
+        this.listeners.put(name, mcEvents);
+        if (this.archive != null) {
+            // Minecraft events pass the bridges of all bots that relay them, only one of them may archive each kind
+            Set<MessageType> archived = EnumSet.noneOf(MessageType.class);
+            if (events.node("mc-chat").getBoolean() && this.archivedMinecraft.add(MessageType.CHAT)) {
+                archived.add(MessageType.CHAT);
+            }
+            if (events.node("mc-join").getBoolean() && this.archivedMinecraft.add(MessageType.JOIN)) {
+                archived.add(MessageType.JOIN);
+            }
+            if (events.node("mc-quit").getBoolean() && this.archivedMinecraft.add(MessageType.QUIT)) {
+                archived.add(MessageType.QUIT);
+            }
+            if (!archived.isEmpty()) {
+                BridgeListener archiveListener = this.archive.listener(name, Trace.Direction.TO_IRC);
+                bot.getToIRC().addListener((type, user, content) -> {
+                    if (archived.contains(type)) {
+                        archiveListener.onMessage(type, user, content);
+                    }
+                });
+            }
+            bot.getToMinestom().addListener(this.archive.listener(name, Trace.Direction.TO_MINESTOM));
+        }
+        if (events.node("mc-chat").getBoolean()) {
+            this.playerHooks.add(PlayerChatEvent.class, mcEvents::onPlayerChat);
+        }
+        if (events.node("mc-join").getBoolean()) {
+            this.playerHooks.add(PlayerLoginEvent.class, mcEvents::onPlayerJoin);
+        }
+        if (events.node("mc-quit").getBoolean()) {
+            this.playerHooks.add(PlayerDisconnectEvent.class, mcEvents::onPlayerLeave);
+        }
+
+        List<String> instances;
+        try {
+            instances = data.node("instances").getList(String.class, List.of());
+        } catch (SerializationException e) {
+            CraftIRC.log().warn(String.format("Invalid instance list for bot %s, showing it's messages to all players", name), e);
+            instances = List.of();
+        }
+        if (!instances.isEmpty()) {
+            final InstanceScope scope = new InstanceScope(instances);
+            MinecraftServer.getConnectionManager().getOnlinePlayers().forEach(player -> scope.spawn(player, player.getInstance()));
+            this.playerHooks.add(PlayerSpawnEvent.class, event -> scope.spawn(event.getPlayer(), event.getSpawnInstance()));
+            this.playerHooks.add(PlayerDisconnectEvent.class, event -> scope.remove(event.getPlayer()));
+            bot.getToMinestom().setSink(scope);
+        }
+
+        ConfigurationNode history = data.node("history");
+        if (history.node("size").getInt(100) > 0) {
+            ChatHistory chatHistory = this.getHistory(history.node("size").getInt(100),
+                    history.node("slot-bytes").getInt(512), history.node("replay").getInt(20));
+            if (instances.isEmpty()) {
+                // The history is replayed to all players, which must not see the messages of bots limited to some instances
+                bot.getToMinestom().setHistory(chatHistory);
+            }
+            if (events.node("mc-chat").getBoolean() && !this.historyHasChat) {
+                // Minecraft chat passes the bridges of all bots, only one of them may add it
+                bot.getToIRC().setHistory(chatHistory);
+                this.historyHasChat = true;
+            }
+        }
+
+        // register preprocessors
+        List<Preprocessor> toIRCProcessors = new ArrayList<>();
+        List<Preprocessor> toMinestomProcessors = new ArrayList<>();
+        ConfigurationNode filter = processors.node("word-filter");
+        List<String> filteredWords;
+        try {
+            filteredWords = filter.node("words").getList(String.class, List.of());
+        } catch (SerializationException e) {
+            CraftIRC.log().warn(String.format("Invalid word filter list for bot %s, not filtering any words", name), e);
+            filteredWords = List.of();
+        }
+        if (!filteredWords.isEmpty()) {
+            // The filter goes first so that it sees the words before any color codes get inserted
+            WordFilter wordFilter = new WordFilter(filteredWords, "block".equalsIgnoreCase(filter.node("mode").getString("censor")));
+            toIRCProcessors.add(wordFilter);
+            toMinestomProcessors.add(wordFilter);
+        }
+        if (processors.node("colors-irc").getBoolean()) {
+            toIRCProcessors.add(new IRCColor(true));
+        }
+        if (processors.node("colors-mc").getBoolean()) {
+            toMinestomProcessors.add(new IRCColor(false));
+        }
+        toIRCProcessors.forEach(processor -> bot.getToIRC().registerPreprocessor(MessageProcessingStage.PROCESS, processor));
+        toMinestomProcessors.forEach(processor -> bot.getToMinestom().registerPreprocessor(MessageProcessingStage.PROCESS, processor));
+        if (processors.node("links").getBoolean()) {
+            // Registered last so the links are found in the text as it will be shown
+            bot.getToMinestom().registerPreprocessor(MessageProcessingStage.PROCESS, new LinkDetector());
+        }
+        if (processors.node("mentions").getBoolean()) {
+            // Registered after the color conversion so the highlighting does not get mangled by it
+            bot.getToMinestom().registerPreprocessor(MessageProcessingStage.POST_PROCESS,
+                    this.getMentionHighlighter(format.node("mc-mention").getString("{#yellow}${user}{#white}")));
+        }
+
+        // register private messages, only bots with an IRC client of their own receive them
+        if (events.node("irc-private").getBoolean(true)) {
+            PrivateMessages privateMessages = new PrivateMessages(bot, players, toPlayer, toIRC,
+                    toMinestomProcessors, toIRCProcessors, data.node("commands", "cooldown").getInt(10));
+            bot.setPrivateMessages(privateMessages);
+            if (ircEvents != null) {
+                ircEvents.setPrivateMessages(privateMessages);
+            }
+        }
+
+        // Add bot to channel
+        bot.addChannel(data.node("channel").getString());
+
+        // register bot
+        this.bots.put(name, bot);
+        if (bot.getClient() != null) {
+            bot.getClient().connect();
+        }
+    }
+
+    @NotNull
+    private Client createClient(@NotNull String name, @NotNull ConfigurationNode data, @NotNull LatencyTracer tracer) {
         Client.Builder botBuilder = Client.builder();
         botBuilder.name(name);
         botBuilder.server().host(data.node("host").getString("localhost"));
@@ -135,7 +472,17 @@ public final class BotManager {
         ConfigurationNode auth = data.node("auth");
         String authUser = auth.node("user").getString();
         String authPass = auth.node("pass").getString();
-        boolean nickless = auth.node("nickless").getBoolean();
+        String mechanism = authMechanism(auth);
+        if (mechanism.equals("external")) {
+            // The client certificate is what identifies the bot
+            String cert = auth.node("cert").getString();
+            String key = auth.node("key").getString();
+            if (cert != null && key != null) {
+                botBuilder.server().secureKeyCertChain(new File(cert).toPath());
+                botBuilder.server().secureKey(new File(key).toPath());
+                botBuilder.server().secureKeyPassword(auth.node("key-password").getString());
+            }
+        }
 
         ConfigurationNode debug = data.node("debug-output");
         if (debug.node("exceptions").getBoolean()) {
@@ -147,74 +494,141 @@ public final class BotManager {
             botBuilder.listeners().input(input -> CraftIRC.log().info("[IN] " + input));
         }
         if (debug.node("output").getBoolean()) {
-            botBuilder.listeners().output(output -> CraftIRC.log().info("[OUT] " + output));
+            botBuilder.listeners().output(output -> {
+                tracer.written(output);
+                CraftIRC.log().info("[OUT] " + output);
+            });
+        } else if (tracer.isEnabled()) {
+            botBuilder.listeners().output(tracer::written);
         }
 
         Client newBot = botBuilder.build();
 
-        if (authUser != null && authPass != null) {
-            newBot.getAuthManager().addProtocol(nickless ? new NicklessServ(newBot, authUser, authPass) : NickServ.builder(newBot).account(authUser).password(authPass).build());
+        switch (mechanism) {
+        case "plain":
+            newBot.getAuthManager().addProtocol(new SaslPlain(newBot, authUser, authPass));
+            break;
+        case "external":
+            newBot.getAuthManager().addProtocol(new SaslExternal(newBot));
+            break;
+        case "nickless":
+            newBot.getAuthManager().addProtocol(new NicklessServ(newBot, authUser, authPass));
+            break;
+        case "nickserv":
+            newBot.getAuthManager().addProtocol(NickServ.builder(newBot).account(authUser).password(authPass).build());
+            break;
+        case "none":
+            break;
+        default:
+            CraftIRC.log().warn(String.format("Unknown auth mechanism %s for bot %s", mechanism, name));
         }
 
-        newBot.connect();
+        // Connected by addBot once all listeners are registered
+        return newBot;
+    }
 
-        final IRCBot bot = new IRCBot(name, newBot);
+    /**
+     * Gets the mechanism a bot logs in to it's account with.
+     *
+     * @param auth the auth configuration of the bot
+     * @return "plain" or "external" for SASL, "nickserv" or "nickless" for NickServ or "none"
+     */
+    @NotNull
+    private static String authMechanism(@NotNull ConfigurationNode auth) {
+        String mechanism = auth.node("mechanism").getString("nickserv").toLowerCase();
+        if (mechanism.equals("nickserv") && auth.node("nickless").getBoolean()) {
+            mechanism = "nickless";
+        } else if (mechanism.equals("external")) {
+            return mechanism;
+        }
+        return auth.node("user").getString() == null || auth.node("pass").getString() == null ? "none" : mechanism;
+    }
 
-        ConfigurationNode events = data.node("event");
-        ConfigurationNode format = data.node("format");
-        ConfigurationNode processors = data.node("processors");
+    /**
+     * Obtains the highlighter that is shared between all bots, creating it if needed.
+     * The highlighter is kept up to date with the online players as they log in or disconnect.
+     *
+     * @param format the format of highlighted names, only used if the highlighter does not exist yet
+     * @return the shared mention highlighter
+     */
+    @NotNull
+    private MentionHighlighter getMentionHighlighter(@NotNull String format) {
+        if (this.mentionHighlighter == null) {
+            final MentionHighlighter highlighter = new MentionHighlighter(format);
+            MinecraftServer.getConnectionManager().getOnlinePlayers().forEach(player -> highlighter.addName(player.getUsername()));
+            this.playerHooks.add(PlayerLoginEvent.class, event -> highlighter.addName(event.getPlayer().getUsername()));
+            this.playerHooks.add(PlayerDisconnectEvent.class, event -> highlighter.removeName(event.getPlayer().getUsername()));
+            this.mentionHighlighter = highlighter;
+        }
+        return this.mentionHighlighter;
+    }
 
-        // register IRC events
-        bot.getClient().getEventManager().registerEventListener(new IRCEventListener(bot.getToMinestom(), 
-                events.node("irc-chat").getBoolean(),
-                events.node("irc-join").getBoolean(),
-                events.node("irc-quit").getBoolean(),
-                events.node("irc-kick").getBoolean(),
-                events.node("irc-away").getBoolean()));
+    /**
+     * Gets the name an instance is known by in the formats, which is the name it was given or it's unique id.
+     */
+    @NotNull
+    private static String instanceName(@NotNull Instance instance) {
+        String instanceName = InstanceScope.getName(instance);
+        return instanceName == null ? instance.getUniqueId().toString() : instanceName;
+    }
 
-        // register minecraft events
-        MinestomEventListener mcEvents = new MinestomEventListener(bot.getToIRC());
-        if (events.node("mc-chat").getBoolean()) {
-            MinecraftServer.getConnectionManager().addPlayerInitialization(player -> {
-                player.addEventCallback(PlayerChatEvent.class, mcEvents::onPlayerChat);
-            });
-        }
-        if (events.node("mc-join").getBoolean()) {
-            MinecraftServer.getConnectionManager().addPlayerInitialization(player -> {
-                player.addEventCallback(PlayerLoginEvent.class, mcEvents::onPlayerJoin);
-            });
+    /**
+     * Obtains the index of the online players that is shared between all bots, creating it if needed.
+     * The index is kept up to date with the online players as they log in or disconnect.
+     *
+     * @return the shared player index
+     */
+    @NotNull
+    private PlayerIndex getPlayerIndex() {
+        if (this.playerIndex == null) {
+            final PlayerIndex index = new PlayerIndex();
+            MinecraftServer.getConnectionManager().getOnlinePlayers().forEach(index::add);
+            this.playerHooks.add(PlayerLoginEvent.class, event -> index.add(event.getPlayer()));
+            this.playerHooks.add(PlayerDisconnectEvent.class, event -> index.remove(event.getPlayer()));
+            this.playerIndex = index;
         }
-        if (events.node("mc-quit").getBoolean()) {
-            MinecraftServer.getConnectionManager().addPlayerInitialization(player -> {
-                player.addEventCallback(PlayerDisconnectEvent.class, mcEvents::onPlayerLeave);
+        return this.playerIndex;
+    }
+
+    /**
+     * Obtains the chat history that is shared between all bots, creating it if needed.
+     * The last messages of the history are replayed to players when they first spawn, which is the first time
+     * they are able to see chat messages, until the bot manager is shut down.
+     *
+     * @param size the amount of messages to keep, only used if the history does not exist yet
+     * @param slotBytes the maximum size of a single message, only used if the history does not exist yet
+     * @param replay the amount of messages to replay, only used if the history does not exist yet
+     * @return the shared chat history
+     */
+    @NotNull
+    private ChatHistory getHistory(int size, int slotBytes, int replay) {
+        if (this.history == null) {
+            final ChatHistory chatHistory = new ChatHistory(size, slotBytes);
+            this.playerHooks.add(PlayerSpawnEvent.class, event -> {
+                if (!event.isFirstSpawn()) {
+                    return;
+                }
+                try {
+                    chatHistory.getLast(replay).forEach(event.getPlayer()::sendMessage);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
             });
+            this.history = chatHistory;
         }
+        return this.history;
+    }
 
-        // register formatters
-        bot.getToIRC().registerProcessor(MessageProcessingStage.FORMAT, 
-                new IRCChatFormatter(format.node("irc-chat").getString(), 
-                        format.node("irc-join").getString(), 
-                        format.node("irc-quit").getString()));
-        bot.getToMinestom().registerProcessor(MessageProcessingStage.FORMAT, 
-                new MinestomChatFormatter(format.node("mc-chat").getString(), 
-                        format.node("mc-join").getString(), 
-                        format.node("mc-quit").getString(),
-                        format.node("mc-kick").getString(format.node("mc-quit").getString()),
-                        format.node("mc-away").getString(format.node("mc-quit").getString()),
-                        format.node("mc-back").getString(format.node("mc-join").getString())));
-
-        // register preprocessors
-        if (processors.node("colors-irc").getBoolean()) {
-            bot.getToIRC().registerPreprocessor(MessageProcessingStage.PROCESS, new IRCColor(true));
-        }
-        if (processors.node("colors-mc").getBoolean()) {
-            bot.getToMinestom().registerPreprocessor(MessageProcessingStage.PROCESS, new IRCColor(false));
+    /**
+     * Obtains the server snapshot that is shared between all bots, creating it if needed.
+     *
+     * @return the shared server snapshot
+     */
+    @NotNull
+    private ServerSnapshot getSnapshot() {
+        if (this.snapshot == null) {
+            this.snapshot = new ServerSnapshot(this.playerHooks);
         }
-
-        // Add bot to channel
-        bot.addChannel(data.node("channel").getString());
-
-        // register bot
-        this.bots.put(name, bot);
+        return this.snapshot;
     }
 }
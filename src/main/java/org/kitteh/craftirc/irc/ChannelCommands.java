@@ -0,0 +1,134 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Answers the commands that IRC users can issue within a channel, such as "!players".
+ * Each command is answered at most once per cooldown and channel. Requests that arrive during the
+ * cooldown are coalesced into the answer that was already sent, so the bot cannot be used to flood the channel.
+ * @since 5.0.2
+ */
+public final class ChannelCommands {
+
+    private final IRCBot bot;
+    private final ServerSnapshot snapshot;
+    private final String prefix;
+    private final long cooldown;
+    private final Map<String, Long> lastAnswers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the channel commands of a bot.
+     *
+     * @param bot bot that answers the commands
+     * @param snapshot the server state the answers are taken from
+     * @param prefix the prefix that commands start with
+     * @param cooldownSeconds the time in seconds until the same command is answered again in the same channel
+     */
+    ChannelCommands(@NotNull IRCBot bot, @NotNull ServerSnapshot snapshot, @NotNull String prefix, int cooldownSeconds) {
+        this.bot = bot;
+        this.snapshot = snapshot;
+        this.prefix = prefix;
+        this.cooldown = TimeUnit.SECONDS.toNanos(cooldownSeconds);
+    }
+
+    /**
+     * Handles a message that was sent within a channel.
+     *
+     * @param channel channel the message was sent in
+     * @param message message that was sent
+     * @return true if the message was a command and should not be relayed
+     */
+    public boolean handle(@NotNull String channel, @NotNull String message) {
+        if (!message.startsWith(this.prefix)) {
+            return false;
+        }
+        String command = message.substring(this.prefix.length()).trim().toLowerCase();
+        switch (command) {
+        case "players":
+        case "tps":
+        case "uptime":
+            break;
+        default:
+            return false;
+        }
+        if (!this.acquire(channel + ' ' + command)) {
+            return true;
+        }
+        switch (command) {
+        case "players":
+            int count = this.snapshot.getPlayerCount();
+            this.bot.sendMessage(channel, count == 0 ? "Nobody is online." : "Online players (" + count + "): " + this.snapshot.getPlayerList());
+            break;
+        case "tps":
+            this.bot.sendMessage(channel, String.format("TPS: %.2f", this.snapshot.getTps()));
+            break;
+        case "uptime":
+            this.bot.sendMessage(channel, "Uptime: " + formatDuration(this.snapshot.getUptime()));
+            break;
+        default:
+            break;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given command may be answered now and if so starts it's cooldown.
+     *
+     * @param key the command and channel
+     * @return true if the command should be answered
+     */
+    private boolean acquire(@NotNull String key) {
+        long now = System.nanoTime();
+        boolean[] acquired = new boolean[1];
+        this.lastAnswers.compute(key, (k, last) -> {
+            if (last != null && now - last < this.cooldown) {
+                return last;
+            }
+            acquired[0] = true;
+            return now;
+        });
+        return acquired[0];
+    }
+
+    @NotNull
+    private static String formatDuration(long millis) {
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(millis);
+        long days = minutes / (60 * 24);
+        long hours = (minutes / 60) % 24;
+        minutes %= 60;
+        if (days != 0) {
+            return days + "d " + hours + "h " + minutes + "m";
+        } else if (hours != 0) {
+            return hours + "h " + minutes + "m";
+        }
+        return minutes + "m";
+    }
+}
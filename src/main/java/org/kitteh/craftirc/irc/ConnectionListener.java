@@ -0,0 +1,56 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.metrics.ConnectionEvent;
+import org.kitteh.irc.client.library.event.connection.ClientConnectionEndedEvent;
+import org.kitteh.irc.client.library.event.connection.ClientConnectionEstablishedEvent;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Reports the connections of a bot to the flight recorder.
+ */
+final class ConnectionListener {
+    private final String name;
+    private volatile boolean connectedBefore;
+
+    ConnectionListener(@NotNull String name) {
+        this.name = name;
+    }
+
+    @Handler
+    public void established(@NotNull ClientConnectionEstablishedEvent event) {
+        ConnectionEvent.commit(this.name, true, this.connectedBefore, null);
+        this.connectedBefore = true;
+    }
+
+    @Handler
+    public void ended(@NotNull ClientConnectionEndedEvent event) {
+        ConnectionEvent.commit(this.name, false, event.willAttemptReconnect(),
+                event.getCause().map(Exception::toString).orElse(null));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.event.client.ClientNegotiationCompleteEvent;
+import org.kitteh.irc.client.library.event.client.ClientReceiveCommandEvent;
+import org.kitteh.irc.client.library.event.client.ClientReceiveNumericEvent;
+import org.kitteh.irc.client.library.event.connection.ClientConnectionEndedEvent;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Detects connections that are dead without the client noticing, which happens when a TCP connection is only
+ * half open. The watchdog pings the server at a fixed interval and measures how long the answer takes.
+ * If the server did not answer a ping or did not send anything at all for longer than the timeout, the client
+ * is made to reconnect.
+ * @since 5.0.2
+ */
+public final class ConnectionWatchdog {
+    private static final String TOKEN_PREFIX = "craftirc-";
+
+    private final String name;
+    private final Client client;
+    private final long timeout;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger reconnects = new AtomicInteger();
+    private volatile boolean registered;
+    private volatile long lastReceived = System.nanoTime();
+    private volatile long pingSent;
+    private volatile String pingToken;
+    private volatile long lag = -1;
+    private int pings;
+
+    /**
+     * Creates and starts a new watchdog.
+     *
+     * @param name the name of the bot
+     * @param client the client to watch
+     * @param interval the time between two pings in milliseconds
+     * @param timeout the time without an answer after which the client reconnects, in milliseconds
+     */
+    public ConnectionWatchdog(@NotNull String name, @NotNull Client client, long interval, long timeout) {
+        this.name = name;
+        this.client = client;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, interval));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CraftIRC " + name + " watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        try {
+            if (!this.registered) {
+                // Connecting is watched by the client itself
+                return;
+            }
+            long now = System.nanoTime();
+            long waiting = this.pingToken == null ? 0 : now - this.pingSent;
+            long silent = now - this.lastReceived;
+            if (waiting > this.timeout || silent > this.timeout) {
+                this.registered = false;
+                this.pingToken = null;
+                this.reconnects.incrementAndGet();
+                CraftIRC.log().warn(String.format("Bot %s received nothing for %d seconds, reconnecting", this.name,
+                        TimeUnit.NANOSECONDS.toSeconds(Math.max(waiting, silent))));
+                this.client.reconnect("Ping timeout");
+                return;
+            }
+            if (this.pingToken == null) {
+                String token = TOKEN_PREFIX + Integer.toString(++this.pings, 36);
+                this.pingSent = System.nanoTime();
+                this.pingToken = token;
+                // Bypasses the queues, a full queue should not count as lag
+                this.client.sendRawLineImmediately("PING :" + token);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Handler
+    public void registered(@NotNull ClientNegotiationCompleteEvent event) {
+        this.lastReceived = System.nanoTime();
+        this.pingToken = null;
+        this.registered = true;
+    }
+
+    @Handler
+    public void ended(@NotNull ClientConnectionEndedEvent event) {
+        this.registered = false;
+        this.pingToken = null;
+    }
+
+    @Handler
+    public void command(@NotNull ClientReceiveCommandEvent event) {
+        long now = System.nanoTime();
+        this.lastReceived = now;
+        String token = this.pingToken;
+        if (token == null || !"PONG".equals(event.getCommand())) {
+            return;
+        }
+        List<String> parameters = event.getParameters();
+        if (!parameters.isEmpty() && token.equals(parameters.get(parameters.size() - 1))) {
+            this.lag = TimeUnit.NANOSECONDS.toMillis(now - this.pingSent);
+            this.pingToken = null;
+        }
+    }
+
+    @Handler
+    public void numeric(@NotNull ClientReceiveNumericEvent event) {
+        this.lastReceived = System.nanoTime();
+    }
+
+    /**
+     * Gets the time the server took to answer the last ping.
+     * While a ping is waiting for it's answer for longer than that, the time it has been waiting is returned instead.
+     *
+     * @return the lag in milliseconds, or -1 if no ping was answered yet
+     */
+    public long getLag() {
+        String token = this.pingToken;
+        long waiting = token == null ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.pingSent);
+        return Math.max(this.lag, waiting);
+    }
+
+    /**
+     * Gets the time since the server last sent anything.
+     *
+     * @return the time in milliseconds
+     */
+    public long getSilence() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastReceived);
+    }
+
+    /**
+     * Gets how often the watchdog made the client reconnect.
+     *
+     * @return the amount of forced reconnects
+     */
+    public int getReconnects() {
+        return this.reconnects.get();
+    }
+
+    void shutdown() {
+        this.scheduler.shutdownNow();
+    }
+}
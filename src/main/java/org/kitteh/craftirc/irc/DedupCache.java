@@ -0,0 +1,96 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers recently seen messages so duplicates can be dropped.
+ * Entries expire after a fixed time and the amount of entries is bounded, so the memory used by the cache never grows
+ * beyond it's capacity. As entries are kept in the order they were added, expired entries are always at the head of
+ * the cache and are evicted in constant amortised time.
+ * @since 5.0.2
+ */
+public final class DedupCache {
+
+    private final long ttl;
+    private final int capacity;
+    private final LinkedHashMap<Long, Long> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum amount of remembered messages
+     * @param ttl the time messages are remembered for
+     * @param unit the unit of the time
+     */
+    public DedupCache(int capacity, long ttl, TimeUnit unit) {
+        this.capacity = capacity;
+        this.ttl = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<>(Math.min(capacity, 1024) * 4 / 3 + 1) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return this.size() > DedupCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Marks a message as seen.
+     *
+     * @param key the key identifying the message
+     * @return true if the message was not seen recently, false if it is a duplicate
+     */
+    public synchronized boolean add(long key) {
+        long now = System.nanoTime();
+        for (Iterator<Long> it = this.entries.values().iterator(); it.hasNext();) {
+            if (now - it.next() < this.ttl) {
+                break;
+            }
+            it.remove();
+        }
+        return this.entries.putIfAbsent(key, now) == null;
+    }
+
+    /**
+     * Computes a 64 bit key for a string using the FNV-1a hash.
+     *
+     * @param string the string to hash
+     * @return the key of the string
+     */
+    public static long key(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.irc.client.library.event.client.ClientReceiveCommandEvent;
+import org.kitteh.irc.client.library.event.client.ClientReceiveNumericEvent;
+import org.kitteh.irc.client.library.event.connection.ClientConnectionClosedEvent;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Watches for the ways servers tell a bot that it sends too fast and informs the pacer of the bot.
+ */
+final class FloodListener {
+    private static final Pattern THROTTLE_NOTICE = Pattern.compile("flood|throttl|too fast|too many|slow down", Pattern.CASE_INSENSITIVE);
+    private static final int RPL_TRYAGAIN = 263;
+    private static final int ERR_TARGETTOOFAST = 439;
+
+    private final AdaptivePacer pacer;
+
+    FloodListener(@NotNull AdaptivePacer pacer) {
+        this.pacer = pacer;
+    }
+
+    @Handler
+    public void command(@NotNull ClientReceiveCommandEvent event) {
+        List<String> parameters = event.getParameters();
+        // Only notices of the server itself, users have a full mask
+        if (!"NOTICE".equals(event.getCommand()) || event.getActor().getName().indexOf('!') >= 0 || parameters.size() < 2) {
+            return;
+        }
+        String text = parameters.get(parameters.size() - 1);
+        if (THROTTLE_NOTICE.matcher(text).find()) {
+            this.pacer.throttled(text);
+        }
+    }
+
+    @Handler
+    public void numeric(@NotNull ClientReceiveNumericEvent event) {
+        if (event.getNumeric() == RPL_TRYAGAIN || event.getNumeric() == ERR_TARGETTOOFAST) {
+            List<String> parameters = event.getParameters();
+            this.pacer.throttled(parameters.isEmpty() ? Integer.toString(event.getNumeric()) : parameters.get(parameters.size() - 1));
+        }
+    }
+
+    @Handler
+    public void closed(@NotNull ClientConnectionClosedEvent event) {
+        if (event.getLastMessage().map(message -> message.toLowerCase().contains("excess flood")).orElse(false)) {
+            this.pacer.flooded();
+        }
+    }
+}
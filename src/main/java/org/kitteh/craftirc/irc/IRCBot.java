@@ -24,31 +24,96 @@
  */
 package org.kitteh.craftirc.irc;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.kitteh.craftirc.messaging.IRC2Minestom;
+import org.kitteh.craftirc.messaging.MessageType;
 import org.kitteh.craftirc.messaging.Minestom2IRC;
+import org.kitteh.craftirc.messaging.transport.IRCLine;
+import org.kitteh.craftirc.messaging.transport.MessageSink;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
+import org.kitteh.craftirc.relay.RelayClient;
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.CapabilityState;
 import org.kitteh.irc.client.library.element.Channel;
 
 /**
  * Wraps an IRC client and handles events.
+ * In relay client mode the bot has no IRC client of it's own and sends it's messages through the relay hub instead.
+ * The bot is the sink of it's {@link Minestom2IRC} bridge.
  */
-public final class IRCBot {
+public final class IRCBot implements MessageSink<IRCLine> {
+    /**
+     * The maximum amount of bytes of message content per line, which leaves room for the prefix
+     * the server adds when relaying the message and for the origin marker.
+     */
+    private static final int MAX_LINE_BYTES = 380;
+
+    /**
+     * The channel modes of operators, admins and owners.
+     */
+    private static final String OPERATOR_MODES = "oaq";
+
     private final Client client;
+    private final RelayClient relay;
     private final String name;
 
     private final IRC2Minestom minestom;
     private final Minestom2IRC irc;
+    private final UserStateTable users = new UserStateTable();
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final DedupCache dedup = new DedupCache(4096, 60, TimeUnit.SECONDS);
 
-    IRCBot(@NotNull String name, final @NotNull Client client) {
+    private final LatencyTracer tracer;
+    private final LaneExecutor executor;
+    private final OutboundQueue outbound;
+    private ConnectionWatchdog watchdog;
+    private AuthGate authGate;
+    private PrivateMessages privateMessages;
+
+    IRCBot(@NotNull String name, final @NotNull Client client, final @NotNull LatencyTracer tracer, int threads) {
+        this(name, client, tracer, threads, 64, 500, 4);
+    }
+
+    IRCBot(@NotNull String name, final @NotNull Client client, final @NotNull LatencyTracer tracer, int threads,
+            int queueCapacity, long sendInterval, int sendBurst) {
         this.client = client;
+        this.relay = null;
         this.name = name;
+        this.tracer = tracer;
+        this.executor = new LaneExecutor(name, threads);
+        this.outbound = new OutboundQueue(name, client::sendRawLineImmediately, tracer, queueCapacity, sendInterval, sendBurst);
 
-        minestom = new IRC2Minestom();
+        minestom = new IRC2Minestom(name);
         irc = new Minestom2IRC(this, new LinkedList<>());
+        minestom.setTracer(tracer);
+        irc.setTracer(tracer);
+    }
+
+    IRCBot(@NotNull String name, final @NotNull RelayClient relay, final @NotNull LatencyTracer tracer, int threads) {
+        this.client = null;
+        this.relay = relay;
+        this.name = name;
+        this.tracer = tracer;
+        this.executor = new LaneExecutor(name, threads);
+        this.outbound = null;
 
+        minestom = new IRC2Minestom(name);
+        irc = new Minestom2IRC(this, new LinkedList<>());
+        minestom.setTracer(tracer);
+        irc.setTracer(tracer);
     }
 
     /**
@@ -62,13 +127,29 @@ public final class IRCBot {
     }
 
     /**
-     * Adds a channel to the bot, which will join when possible.
+     * Adds a channel to the bot, which will join when possible, and not before the bot is logged in to it's account.
      *
      * @param channel channel to join
      */
     public void addChannel(@NotNull String channel) {
-        this.client.addChannel(channel);
+        if (this.authGate != null) {
+            this.authGate.addChannel(channel);
+        } else if (this.client != null) {
+            this.client.addChannel(channel);
+        }
         this.irc.addChannel(channel);
+        this.channels.add(channel.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets whether a channel was added to the bot.
+     *
+     * @param channel the channel, case insensitive
+     * @return true if the bot joins the channel
+     * @since 5.0.2
+     */
+    public boolean hasChannel(@NotNull String channel) {
+        return this.channels.contains(channel.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -78,21 +159,211 @@ public final class IRCBot {
      * @param message message to send
      */
     public void sendMessage(@NotNull Channel target, @NotNull String message) {
-        this.client.sendMessage(target.getName(), message);
+        this.sendMessage(target.getName(), message);
     }
 
     /**
      * Sends a message to the named target.
+     * The message is marked with the origin ID of this server, see {@link OriginMarker}.
+     * Messages with several lines or that are too long for a single line are sent as one
+     * draft/multiline batch where the server supports it, and as separate messages otherwise.
      *
      * @param target target
      * @param message message to send
      */
     public void sendMessage(@NotNull String target, @NotNull String message) {
-        this.client.sendMessage(target, message);
+        this.sendMessage(target, message, null);
+    }
+
+    /**
+     * Sends a message to the named target, recording when the message is written to the socket in the given trace.
+     *
+     * @param target target
+     * @param message message to send
+     * @param trace the trace of the message, or null if the message is not sampled
+     * @since 5.0.2
+     */
+    public void sendMessage(@NotNull String target, @NotNull String message, @Nullable Trace trace) {
+        this.sendMessage(target, message, MessageType.CHAT, trace);
+    }
+
+    /**
+     * Sends a message to the named target.
+     * The message is queued with the priority of it's type, see {@link OutboundQueue}.
+     *
+     * @param target target
+     * @param message message to send
+     * @param type the type of the message
+     * @param trace the trace of the message, or null if the message is not sampled
+     * @since 5.0.2
+     */
+    public void sendMessage(@NotNull String target, @NotNull String message, @NotNull MessageType type, @Nullable Trace trace) {
+        this.sendMessage(target, message, type, OutboundQueue.Priority.of(type), trace);
+    }
+
+    /**
+     * Sends a reply of the bot itself, such as an answer to a private message, to the named target.
+     * Replies are queued below chat, so they can not hold up the messages of the bridged users.
+     *
+     * @param target target
+     * @param message message to send
+     * @since 5.0.2
+     */
+    public void sendReply(@NotNull String target, @NotNull String message) {
+        this.sendMessage(target, message, MessageType.CHAT, OutboundQueue.Priority.REPLY, null);
+    }
+
+    private void sendMessage(@NotNull String target, @NotNull String message, @NotNull MessageType type,
+            @NotNull OutboundQueue.Priority priority, @Nullable Trace trace) {
+        if (this.relay != null) {
+            // The hub queues the line by it's type, there is no priority of it's own in the protocol
+            this.relay.sendLine(this.name, target, type, message);
+            if (trace != null) {
+                // The line is written by the hub, so the trace ends here
+                trace.finish(Trace.Hop.HANDOFF);
+            }
+            return;
+        }
+        boolean tags = this.hasCapability("message-tags");
+        List<MessageSplitter.Line> lines = MessageSplitter.split(message, MAX_LINE_BYTES - target.length());
+        if (lines.isEmpty()) {
+            // Nothing but line breaks, so nothing to send
+            if (trace != null) {
+                trace.finish(Trace.Hop.POSTFORMAT);
+            }
+            return;
+        }
+        List<String> raw = new ArrayList<>(lines.size());
+        Optional<CapabilityState> multiline = Optional.empty();
+        if (lines.size() > 1 && tags && this.hasCapability("batch")) {
+            multiline = this.client.getCapabilityManager().getCapability("draft/multiline");
+        }
+        if (multiline.isPresent()) {
+            this.buildBatches(target, lines, multiline.get().getValue().orElse(""), raw);
+        } else {
+            for (MessageSplitter.Line line : lines) {
+                if (tags) {
+                    raw.add("@" + OriginMarker.TAG + '=' + OriginMarker.getTagValue() + " PRIVMSG " + target + " :" + line.text);
+                } else {
+                    raw.add("PRIVMSG " + target + " :" + OriginMarker.mark(line.text));
+                }
+            }
+        }
+        this.outbound.offer(priority, raw.toArray(new String[0]), trace);
+    }
+
+    /**
+     * Sends a batch of messages, see {@link #sendMessage(String, String, MessageType, Trace)}.
+     *
+     * @param batch the messages to send
+     * @since 5.0.2
+     */
+    @Override
+    public void send(@NotNull List<IRCLine> batch) {
+        for (IRCLine line : batch) {
+            this.sendMessage(line.getTarget(), line.getMessage(), line.getType(), line.getTrace());
+        }
+    }
+
+    /**
+     * Gets the nick the bot currently uses on IRC.
+     *
+     * @return the nick, or the bot's name if the bot is relayed through a hub
+     * @since 5.0.2
+     */
+    @NotNull
+    public String getNick() {
+        return this.client == null ? this.name : this.client.getNick();
+    }
+
+    /**
+     * Gets whether a target is a channel rather than a user.
+     *
+     * @param target the channel or nick
+     * @return true if the target is a channel
+     * @since 5.0.2
+     */
+    public boolean isChannel(@NotNull String target) {
+        if (this.client == null) {
+            return !target.isEmpty() && "#&".indexOf(target.charAt(0)) != -1;
+        }
+        return this.client.getServerInfo().isValidChannel(target);
+    }
+
+    /**
+     * Gets whether an IRC user is an operator of a channel, which includes the ranks above operators.
+     *
+     * @param channel the channel
+     * @param nick the nick of the user
+     * @return true if the user is an operator, false if not or if the bot is relayed through a hub
+     * @since 5.0.2
+     */
+    public boolean isOperator(@NotNull String channel, @NotNull String nick) {
+        if (this.client == null) {
+            return false;
+        }
+        return this.client.getChannel(channel).flatMap(c -> c.getUserModes(nick))
+                .map(modes -> modes.stream().anyMatch(mode -> OPERATOR_MODES.indexOf(mode.getChar()) != -1))
+                .orElse(false);
+    }
+
+    private boolean hasCapability(@NotNull String capability) {
+        return this.client.getCapabilityManager().getCapability(capability).isPresent();
+    }
+
+    /**
+     * Builds the raw lines of draft/multiline batches, starting a new batch whenever the limits the server
+     * advertises in the capability value would be exceeded.
+     */
+    private void buildBatches(@NotNull String target, @NotNull List<MessageSplitter.Line> lines, @NotNull String limits, @NotNull List<String> raw) {
+        int maxBytes = Integer.MAX_VALUE;
+        int maxLines = Integer.MAX_VALUE;
+        for (String limit : limits.split(",")) {
+            try {
+                if (limit.startsWith("max-bytes=")) {
+                    maxBytes = Integer.parseInt(limit.substring(10));
+                } else if (limit.startsWith("max-lines=")) {
+                    maxLines = Integer.parseInt(limit.substring(10));
+                }
+            } catch (NumberFormatException ignored) {
+                // Keep the limit unbounded, the server will reject the batch if that is wrong
+            }
+        }
+        int start = 0;
+        while (start < lines.size()) {
+            int end = start;
+            int bytes = 0;
+            do {
+                MessageSplitter.Line line = lines.get(end);
+                bytes += MessageSplitter.utf8Length(line.text) + (end > start && !line.concat ? 1 : 0);
+                end++;
+            } while (end < lines.size() && end - start < maxLines
+                    && bytes + MessageSplitter.utf8Length(lines.get(end).text) + 1 <= maxBytes);
+            String reference = Integer.toString(this.batches.incrementAndGet(), 36);
+            raw.add("@" + OriginMarker.TAG + '=' + OriginMarker.getTagValue()
+                + " BATCH +" + reference + " draft/multiline " + target);
+            for (int i = start; i < end; i++) {
+                MessageSplitter.Line line = lines.get(i);
+                // A batch can not start with a concatenated line. Every line carries the origin tag, as servers and
+                // clients without multiline support see the lines as separate messages
+                raw.add("@batch=" + reference + ';' + OriginMarker.TAG + '=' + OriginMarker.getTagValue()
+                    + (line.concat && i > start ? ";draft/multiline-concat" : "")
+                    + " PRIVMSG " + target + " :" + line.text);
+            }
+            raw.add("BATCH -" + reference);
+            start = end;
+        }
     }
 
     void shutdown() {
-        this.client.shutdown("CraftIRC shutting down!");
+        if (this.client != null) {
+            this.client.shutdown("CraftIRC shutting down!");
+            this.outbound.shutdown();
+        }
+        if (this.watchdog != null) {
+            this.watchdog.shutdown();
+        }
+        this.executor.shutdown();
     }
     
     public final Minestom2IRC getToIRC() {
@@ -103,6 +374,100 @@ public final class IRCBot {
         return minestom;
     }
 
+    /**
+     * Gets the state that is tracked for the IRC users the bot can see.
+     *
+     * @return user state table
+     */
+    @NotNull
+    public UserStateTable getUsers() {
+        return this.users;
+    }
+
+    /**
+     * Gets the cache of recently bridged messages, which is used to drop messages that are delivered more than once.
+     *
+     * @return dedup cache
+     * @since 5.0.2
+     */
+    @NotNull
+    public DedupCache getDedup() {
+        return this.dedup;
+    }
+
+    /**
+     * Gets the executor that handles the incoming IRC events of the bot, with a serial lane per channel.
+     *
+     * @return lane executor
+     * @since 5.0.2
+     */
+    @NotNull
+    public LaneExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Gets the queue of the lines the bot sends to IRC.
+     *
+     * @return the outbound queue, or null if the bot is relayed through a hub
+     * @since 5.0.2
+     */
+    @Nullable
+    public OutboundQueue getOutbound() {
+        return this.outbound;
+    }
+
+    /**
+     * Gets the watchdog that checks the connection of the bot.
+     *
+     * @return the watchdog, or null if the connection is not watched
+     * @since 5.0.2
+     */
+    @Nullable
+    public ConnectionWatchdog getWatchdog() {
+        return this.watchdog;
+    }
+
+    void setWatchdog(@NotNull ConnectionWatchdog connectionWatchdog) {
+        this.watchdog = connectionWatchdog;
+    }
+
+    /**
+     * Gets the bridge of the private messages between players and the IRC users the bot can see.
+     *
+     * @return the private message bridge, or null if private messages are disabled for the bot
+     * @since 5.0.2
+     */
+    @Nullable
+    public PrivateMessages getPrivateMessages() {
+        return this.privateMessages;
+    }
+
+    void setPrivateMessages(@NotNull PrivateMessages messages) {
+        this.privateMessages = messages;
+    }
+
+    void setAuthGate(@NotNull AuthGate gate) {
+        this.authGate = gate;
+    }
+
+    /**
+     * Gets the tracer that samples the chat messages of the bot.
+     *
+     * @return latency tracer
+     * @since 5.0.2
+     */
+    @NotNull
+    public LatencyTracer getTracer() {
+        return this.tracer;
+    }
+
+    /**
+     * Gets the IRC client of the bot.
+     *
+     * @return the client, or null if the bot is relayed through a hub
+     */
+    @Nullable
     protected final Client getClient() {
         return client;
     }
@@ -0,0 +1,176 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs the tasks of a bot on a pool of threads owned by the bot, in serial lanes.
+ * Tasks of the same lane, usually a channel, run one after another in the order they were submitted, while different
+ * lanes run in parallel. A lane only occupies a thread while it has tasks, and gives the thread up after a batch of
+ * tasks so that a busy lane can not starve the others.
+ * @since 5.0.2
+ */
+public final class LaneExecutor {
+
+    /**
+     * The amount of tasks a lane runs before giving it's thread to the next lane.
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * A serial lane of tasks.
+     */
+    public static final class Lane implements Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger backlog = new AtomicInteger();
+        private final AtomicInteger maxBacklog = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final ExecutorService pool;
+
+        private Lane(@NotNull ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        private void submit(@NotNull Runnable task) {
+            this.tasks.add(task);
+            int backlog = this.backlog.incrementAndGet();
+            this.maxBacklog.accumulateAndGet(backlog, Math::max);
+            this.schedule();
+        }
+
+        private void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                this.pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = this.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                this.backlog.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            this.scheduled.set(false);
+            // A task may have been added after the last poll but before the flag was cleared
+            if (!this.tasks.isEmpty() && !this.pool.isShutdown()) {
+                this.schedule();
+            }
+        }
+
+        /**
+         * Gets the amount of tasks waiting in the lane.
+         *
+         * @return the backlog
+         */
+        public int getBacklog() {
+            return this.backlog.get();
+        }
+
+        /**
+         * Gets the largest backlog the lane had so far.
+         *
+         * @return the maximum backlog
+         */
+        public int getMaxBacklog() {
+            return this.maxBacklog.get();
+        }
+    }
+
+    private final ExecutorService pool;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name the name of the bot, used to name the threads
+     * @param threads the amount of threads
+     */
+    public LaneExecutor(@NotNull String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "CraftIRC " + name + " worker " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.pool = Executors.newFixedThreadPool(Math.max(threads, 1), factory);
+    }
+
+    /**
+     * Runs a task after all tasks that were submitted to the same lane before.
+     *
+     * @param lane the name of the lane, lanes are compared ignoring case
+     * @param task the task to run
+     */
+    public void execute(@NotNull String lane, @NotNull Runnable task) {
+        if (this.pool.isShutdown()) {
+            return;
+        }
+        this.lanes.computeIfAbsent(lane.toLowerCase(Locale.ROOT), key -> new Lane(this.pool)).submit(task);
+    }
+
+    /**
+     * Gets the lanes that were used so far.
+     *
+     * @return an unmodifiable view of the lanes by name
+     */
+    @NotNull
+    public Map<String, Lane> getLanes() {
+        return Collections.unmodifiableMap(this.lanes);
+    }
+
+    /**
+     * Stops the executor. New tasks are rejected, the lanes that are already scheduled finish their current batch.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+        try {
+            this.pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Splits messages into lines that fit into a single PRIVMSG.
+ * Messages are split at line breaks first, lines that are still too long are then cut at the last space that fits,
+ * or in the middle of a word if there is none.
+ */
+final class MessageSplitter {
+
+    /**
+     * A line of a split message.
+     */
+    static final class Line {
+        final String text;
+        final boolean concat;
+
+        Line(@NotNull String text, boolean concat) {
+            this.text = text;
+            this.concat = concat;
+        }
+    }
+
+    private MessageSplitter() {
+    }
+
+    /**
+     * Splits a message.
+     *
+     * @param message the message to split
+     * @param maxBytes the maximum amount of UTF-8 bytes per line
+     * @return the lines, lines that were cut from the previous line are marked as concatenated. Empty lines are left
+     *     out, as IRC can not send them, so the list is empty if the message has no text at all
+     */
+    @NotNull
+    static List<Line> split(@NotNull String message, int maxBytes) {
+        List<Line> lines = new ArrayList<>();
+        for (String line : message.split("\r?\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            boolean concat = false;
+            while (utf8Length(line, line.length()) > maxBytes) {
+                int cut = cutIndex(line, maxBytes);
+                int space = line.lastIndexOf(' ', cut - 1);
+                if (space > 0) {
+                    cut = space + 1; // Keep the space at the end of the line so concatenation restores it
+                }
+                lines.add(new Line(line.substring(0, cut), concat));
+                line = line.substring(cut);
+                concat = true;
+            }
+            lines.add(new Line(line, concat));
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the amount of UTF-8 bytes needed to encode a message.
+     *
+     * @param message the message
+     * @return the amount of bytes
+     */
+    static int utf8Length(@NotNull String message) {
+        return utf8Length(message, message.length());
+    }
+
+    private static int utf8Length(@NotNull String string, int end) {
+        int length = 0;
+        for (int i = 0; i < end; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int cutIndex(@NotNull String line, int maxBytes) {
+        int length = 0;
+        int i = 0;
+        while (i < line.length()) {
+            int cp = line.codePointAt(i);
+            int bytes = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            if (length + bytes > maxBytes) {
+                break;
+            }
+            length += bytes;
+            i += Character.charCount(cp);
+        }
+        return Math.max(i, 1);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Marks the messages CraftIRC sends to IRC with the origin ID of this server, so a server can recognise it's own
+ * messages when they come back through another bot or the server echoing them.
+ * Where the IRC server supports message tags the ID is sent as a client tag. Otherwise an invisible marker made out
+ * of zero-width characters is appended to the message, which encodes the ID in two bits per character.
+ * @since 5.0.2
+ */
+public final class OriginMarker {
+
+    /**
+     * The name of the client tag that holds the origin ID.
+     */
+    public static final String TAG = "+craftirc/origin";
+
+    private static final char MARKER_START = '\u2063'; // Invisible separator
+    private static final char[] MARKER_DIGITS = {'\u200B', '\u200C', '\u200D', '\u2060'};
+    private static final int MARKER_LENGTH = 9;
+
+    private static final int ORIGIN = ThreadLocalRandom.current().nextInt(1 << 16);
+    private static final String ORIGIN_HEX = String.format("%04x", ORIGIN);
+    private static final String MARKER = encode(ORIGIN);
+
+    private OriginMarker() {
+    }
+
+    @NotNull
+    private static String encode(int origin) {
+        char[] marker = new char[MARKER_LENGTH];
+        marker[0] = MARKER_START;
+        for (int i = 1; i < MARKER_LENGTH; i++) {
+            marker[i] = MARKER_DIGITS[(origin >>> (2 * (MARKER_LENGTH - 1 - i))) & 3];
+        }
+        return new String(marker);
+    }
+
+    /**
+     * Gets the origin ID of this server as it is sent within the message tag.
+     *
+     * @return the hexadecimal origin ID
+     */
+    @NotNull
+    public static String getTagValue() {
+        return ORIGIN_HEX;
+    }
+
+    /**
+     * Appends the invisible marker of this server to a message.
+     *
+     * @param message the message to mark
+     * @return the marked message
+     */
+    @NotNull
+    public static String mark(@NotNull String message) {
+        return message + MARKER;
+    }
+
+    /**
+     * Checks whether a message carries the invisible marker of any CraftIRC server.
+     *
+     * @param message the message to check
+     * @return true if marked
+     */
+    public static boolean isMarked(@NotNull String message) {
+        int start = message.length() - MARKER_LENGTH;
+        return start >= 0 && message.charAt(start) == MARKER_START;
+    }
+
+    /**
+     * Checks whether a message carries the invisible marker of this server.
+     *
+     * @param message the message to check
+     * @return true if the message originates from this server
+     */
+    public static boolean isOwnMarker(@NotNull String message) {
+        return message.endsWith(MARKER);
+    }
+
+    /**
+     * Removes the invisible marker from a marked message.
+     *
+     * @param message the marked message
+     * @return the message without it's marker
+     */
+    @NotNull
+    public static String strip(@NotNull String message) {
+        return isMarked(message) ? message.substring(0, message.length() - MARKER_LENGTH) : message;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.QueueOverflowEvent;
+import org.kitteh.craftirc.metrics.Trace;
+
+/**
+ * Queues the lines a bot sends to IRC and writes them at a rate the server accepts.
+ * Lines are queued by priority and drained by weighted round robin, so chat keeps flowing while the bot is
+ * throttled and replies of the bot itself, join and quit messages only get the remaining send budget. Each priority has it's own bounded queue
+ * and all queues share an overall bound. When a queue is full it's oldest item is shed, when the overall bound is
+ * reached the oldest item of the lowest priority that is not more important than the new item is shed instead.
+ * @since 5.0.2
+ */
+public final class OutboundQueue {
+
+    /**
+     * The priority classes of outgoing messages, from the most to the least important.
+     */
+    public enum Priority {
+        CHAT(4, 1),
+        REPLY(2, 4),
+        LEAVE(2, 2),
+        JOIN(1, 4);
+
+        private final int weight;
+        private final int capacityDivisor;
+
+        Priority(int drainWeight, int divisor) {
+            weight = drainWeight;
+            capacityDivisor = divisor;
+        }
+
+        /**
+         * Gets the priority class of a message type.
+         *
+         * @param type the type of the message
+         * @return the priority
+         */
+        @NotNull
+        public static Priority of(@NotNull MessageType type) {
+            switch (type) {
+            case CHAT:
+                return CHAT;
+            case KICK:
+            case QUIT:
+                return LEAVE;
+            default:
+                return JOIN;
+            }
+        }
+    }
+
+    private static final class Item {
+        private final String[] lines;
+        private final Trace trace;
+
+        private Item(@NotNull String[] lines, @Nullable Trace trace) {
+            this.lines = lines;
+            this.trace = trace;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final String name;
+    private final Consumer<String> sink;
+    private final LatencyTracer tracer;
+    private final int capacity;
+    private final int burst;
+    private final Object lock = new Object();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Item>[] queues = new ArrayDeque[PRIORITIES.length];
+    private final int[] credits = new int[PRIORITIES.length];
+    private final AtomicLongArray shed = new AtomicLongArray(PRIORITIES.length);
+    private final Thread sender;
+    private int size;
+    private volatile AdaptivePacer pacer;
+    private volatile long interval;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new queue.
+     *
+     * @param name the name of the bot
+     * @param sink writes a line to the IRC connection without any further delay
+     * @param tracer the tracer of the bot
+     * @param capacity the amount of messages that may be queued overall
+     * @param interval the time between two lines once the burst is used up
+     * @param burst the amount of lines that may be sent without delay after the queue was idle
+     */
+    public OutboundQueue(@NotNull String name, @NotNull Consumer<String> sink, @NotNull LatencyTracer tracer,
+            int capacity, long interval, int burst) {
+        this.name = name;
+        this.sink = sink;
+        this.tracer = tracer;
+        this.capacity = Math.max(capacity, PRIORITIES.length);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(Math.max(interval, 0));
+        this.burst = Math.max(burst, 1);
+        for (int i = 0; i < this.queues.length; i++) {
+            this.queues[i] = new ArrayDeque<>();
+        }
+        this.sender = new Thread(this::sendLoop, "CraftIRC " + name + " sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @param priority the priority of the message
+     * @param lines the raw lines of the message, which are sent without interruption
+     * @param trace the trace of the message, or null if the message is not sampled
+     */
+    public void offer(@NotNull Priority priority, @NotNull String[] lines, @Nullable Trace trace) {
+        if (lines.length == 0) {
+            return;
+        }
+        synchronized (this.lock) {
+            ArrayDeque<Item> queue = this.queues[priority.ordinal()];
+            if (queue.size() >= this.capacity / priority.capacityDivisor) {
+                this.shed(priority);
+            } else if (this.size >= this.capacity && !this.shedBelow(priority)) {
+                // Everything queued is more important, drop the new message instead
+                this.countShed(priority);
+                return;
+            }
+            queue.addLast(new Item(lines, trace));
+            this.size++;
+            this.lock.notifyAll();
+        }
+    }
+
+    private boolean shedBelow(@NotNull Priority priority) {
+        for (int i = PRIORITIES.length - 1; i >= priority.ordinal(); i--) {
+            if (!this.queues[i].isEmpty()) {
+                this.shed(PRIORITIES[i]);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void shed(@NotNull Priority priority) {
+        this.queues[priority.ordinal()].pollFirst();
+        this.size--;
+        this.countShed(priority);
+    }
+
+    private void countShed(@NotNull Priority priority) {
+        long count = this.shed.incrementAndGet(priority.ordinal());
+        QueueOverflowEvent.commit(this.name + " outbound " + priority.name().toLowerCase(), this.capacity / priority.capacityDivisor, count);
+    }
+
+    /**
+     * Picks the next item by smooth weighted round robin over the queues that are not empty.
+     */
+    @Nullable
+    private Item poll() {
+        int best = -1;
+        int totalWeight = 0;
+        for (int i = 0; i < this.queues.length; i++) {
+            if (this.queues[i].isEmpty()) {
+                continue;
+            }
+            this.credits[i] += PRIORITIES[i].weight;
+            totalWeight += PRIORITIES[i].weight;
+            if (best < 0 || this.credits[i] > this.credits[best]) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        this.credits[best] -= totalWeight;
+        this.size--;
+        return this.queues[best].pollFirst();
+    }
+
+    private void sendLoop() {
+        double tokens = this.burst;
+        long lastRefill = System.nanoTime();
+        boolean limited = false;
+        while (this.running) {
+            try {
+                synchronized (this.lock) {
+                    while (this.size == 0 && this.running) {
+                        this.lock.wait();
+                    }
+                }
+                long now = System.nanoTime();
+                long currentInterval = this.interval;
+                tokens = currentInterval == 0 ? this.burst : Math.min(this.burst, tokens + (now - lastRefill) / (double) currentInterval);
+                lastRefill = now;
+                if (tokens < 1) {
+                    TimeUnit.NANOSECONDS.sleep((long) ((1 - tokens) * currentInterval));
+                    limited = true;
+                    continue;
+                }
+                Item item;
+                synchronized (this.lock) {
+                    item = this.poll();
+                }
+                if (item == null) {
+                    continue;
+                }
+                tokens -= item.lines.length;
+                for (int i = 0; i < item.lines.length; i++) {
+                    if (item.trace != null && i == item.lines.length - 1) {
+                        this.tracer.awaitWrite(item.trace, item.lines[i]);
+                    }
+                    this.sink.accept(item.lines[i]);
+                }
+                AdaptivePacer currentPacer = this.pacer;
+                if (currentPacer != null) {
+                    currentPacer.sent(item.lines.length, limited);
+                }
+                limited = false;
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gets the amount of messages waiting in the queue of a priority.
+     *
+     * @param priority the priority
+     * @return the amount of queued messages
+     */
+    public int getSize(@NotNull Priority priority) {
+        synchronized (this.lock) {
+            return this.queues[priority.ordinal()].size();
+        }
+    }
+
+    /**
+     * Gets the amount of messages of a priority that were shed so far.
+     *
+     * @param priority the priority
+     * @return the amount of shed messages
+     */
+    public long getShed(@NotNull Priority priority) {
+        return this.shed.get(priority.ordinal());
+    }
+
+    /**
+     * Gets the time between two lines once the burst is used up.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(this.interval);
+    }
+
+    /**
+     * Sets the time between two lines once the burst is used up.
+     *
+     * @param millis the interval in milliseconds
+     */
+    public void setInterval(long millis) {
+        this.interval = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+    }
+
+    /**
+     * Gets the pacer that adapts the interval to the network.
+     *
+     * @return the pacer, or null if the interval is fixed
+     */
+    @Nullable
+    public AdaptivePacer getPacer() {
+        return this.pacer;
+    }
+
+    /**
+     * Sets the pacer that adapts the interval to the network.
+     *
+     * @param pacer the pacer, or null to keep the interval fixed
+     */
+    public void setPacer(@Nullable AdaptivePacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Stops sending, messages that are still queued are discarded.
+     */
+    public void shutdown() {
+        this.running = false;
+        this.sender.interrupt();
+    }
+}
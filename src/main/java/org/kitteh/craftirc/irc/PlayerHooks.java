@@ -0,0 +1,112 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jetbrains.annotations.NotNull;
+
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.entity.Player;
+import net.minestom.server.event.Event;
+import net.minestom.server.event.EventCallback;
+
+/**
+ * The event callbacks a {@link BotManager} adds to every player.
+ * Minestom can not forget a player initialization again, so a single one is registered the first time it is needed and
+ * hands each player to the hooks that are active at that time. Players that are already online when a hook is added,
+ * which are all players after a reload, get the hook right away, and all hooks are removed from the online players
+ * again on {@link #shutdown()}. This way a reload replaces the callbacks of the old bots instead of adding to them.
+ */
+final class PlayerHooks {
+
+    private static final AtomicBoolean REGISTERED = new AtomicBoolean();
+    private static final Set<PlayerHooks> ACTIVE = ConcurrentHashMap.newKeySet();
+
+    private final List<Hook<?>> hooks = new CopyOnWriteArrayList<>();
+
+    PlayerHooks() {
+        if (REGISTERED.compareAndSet(false, true)) {
+            MinecraftServer.getConnectionManager().addPlayerInitialization(PlayerHooks::initialize);
+        }
+        ACTIVE.add(this);
+    }
+
+    private static void initialize(@NotNull Player player) {
+        for (PlayerHooks playerHooks : ACTIVE) {
+            for (Hook<?> hook : playerHooks.hooks) {
+                hook.attach(player);
+            }
+        }
+    }
+
+    /**
+     * Adds a callback to all players that are online now or that join later, until the hooks are shut down.
+     *
+     * @param type the event to listen to
+     * @param callback the callback
+     * @param <E> the type of the event
+     */
+    <E extends Event> void add(@NotNull Class<E> type, @NotNull EventCallback<E> callback) {
+        Hook<E> hook = new Hook<>(type, callback);
+        this.hooks.add(hook);
+        MinecraftServer.getConnectionManager().getOnlinePlayers().forEach(hook::attach);
+    }
+
+    /**
+     * Removes all callbacks from the online players and stops adding them to players that join.
+     */
+    void shutdown() {
+        ACTIVE.remove(this);
+        for (Player player : MinecraftServer.getConnectionManager().getOnlinePlayers()) {
+            for (Hook<?> hook : this.hooks) {
+                hook.detach(player);
+            }
+        }
+        this.hooks.clear();
+    }
+
+    private static final class Hook<E extends Event> {
+        private final Class<E> type;
+        private final EventCallback<E> callback;
+
+        private Hook(@NotNull Class<E> type, @NotNull EventCallback<E> callback) {
+            this.type = type;
+            this.callback = callback;
+        }
+
+        private void attach(@NotNull Player player) {
+            player.addEventCallback(this.type, this.callback);
+        }
+
+        private void detach(@NotNull Player player) {
+            player.removeEventCallback(this.type, this.callback);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minestom.server.entity.Player;
+
+/**
+ * Indexes the online players by their name, ignoring case, so players that are addressed from IRC are found
+ * without walking through all online players for every message.
+ * The index is kept up to date as players log in or disconnect, see {@link BotManager}.
+ * @since 5.0.2
+ */
+public final class PlayerIndex {
+
+    private final Map<String, Player> byName = new ConcurrentHashMap<>();
+
+    @NotNull
+    private static String key(@NotNull String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a player to the index, replacing any player of the same name.
+     *
+     * @param player the player that logged in
+     */
+    public void add(@NotNull Player player) {
+        this.byName.put(key(player.getUsername()), player);
+    }
+
+    /**
+     * Removes a player from the index. Nothing is removed if the name already belongs to another player,
+     * which happens if the player logged in again before the disconnect was handled.
+     *
+     * @param player the player that disconnected
+     */
+    public void remove(@NotNull Player player) {
+        this.byName.remove(key(player.getUsername()), player);
+    }
+
+    /**
+     * Gets an online player.
+     *
+     * @param name name of the player, case insensitive
+     * @return the player, or null if no player of that name is online
+     */
+    @Nullable
+    public Player get(@NotNull String name) {
+        return this.byName.get(key(name));
+    }
+
+    /**
+     * Gets the amount of indexed players.
+     *
+     * @return online player count
+     */
+    public int size() {
+        return this.byName.size();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.messaging.IRC2Minestom;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.messaging.Minestom2IRC;
+import org.kitteh.craftirc.messaging.formatting.Template;
+import org.kitteh.craftirc.messaging.processing.PreprocessedMessage;
+import org.kitteh.craftirc.messaging.processing.Preprocessor;
+
+import net.minestom.server.chat.ColoredText;
+import net.minestom.server.entity.Player;
+
+/**
+ * Bridges private messages between players and the IRC users a bot can see.
+ * IRC users message the bot with the name of the player in front of the text, for example "/msg Bot player: hi",
+ * players use the /ircmsg command. Both directions resolve their target through a case insensitive index,
+ * the {@link PlayerIndex} shared by all bots and the {@link UserStateTable} of the bot, and all lines sent to IRC
+ * pass the {@link OutboundQueue} of the bot like any other chat. The replies of the bot itself, for example that a player
+ * is not online, are queued below chat and sent at most once per cooldown and user. Replies that would be sent
+ * during the cooldown are coalesced into the one that was already sent, so the bot cannot be used to flood IRC.
+ * @since 5.0.2
+ */
+public final class PrivateMessages {
+
+    /**
+     * The maximum amount of IRC users outside of the channels of the bot that are remembered as correspondents.
+     */
+    private static final int MAX_CORRESPONDENTS = 256;
+
+    /**
+     * The time in nanoseconds after which a correspondent that did not exchange any message is forgotten.
+     */
+    private static final long CORRESPONDENT_TIMEOUT = TimeUnit.HOURS.toNanos(1);
+
+    private final IRCBot bot;
+    private final PlayerIndex players;
+    private final Template<IRC2Minestom.Message> toPlayerFormat;
+    private final Template<Minestom2IRC.Message> toIRCFormat;
+    private final List<Preprocessor> toPlayerProcessors;
+    private final List<Preprocessor> toIRCProcessors;
+    private final long replyCooldown;
+    /**
+     * The users that exchanged private messages with the bot, mapped from their lower case nick to the time of the
+     * last message. They are kept apart from the {@link UserStateTable}, which only holds the users the bot can see,
+     * as nothing would ever remove them from it. Kept in access order so the least recent correspondent goes first.
+     */
+    private final Map<String, Long> correspondents = new LinkedHashMap<String, Long>(16, 0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return this.size() > MAX_CORRESPONDENTS;
+        }
+    };
+
+    /**
+     * The users the bot replied to, mapped from their lower case nick to the time of the last reply.
+     * Bounded like the correspondents, as any IRC user can message the bot.
+     */
+    private final Map<String, Long> lastReplies = new LinkedHashMap<String, Long>(16, 0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return this.size() > MAX_CORRESPONDENTS;
+        }
+    };
+
+    /**
+     * Creates the private message bridge of a bot.
+     *
+     * @param bot the bot the messages are sent and received by
+     * @param players the index of the online players
+     * @param toPlayerFormat format of the messages players receive, ${user} is the nick of the sender
+     * @param toIRCFormat format of the messages IRC users receive, ${user} is the name of the player
+     * @param toPlayerProcessors preprocessors applied to the text of messages sent to players, for example color conversion
+     * @param toIRCProcessors preprocessors applied to the text of messages sent to IRC users
+     * @param replyCooldownSeconds the time in seconds until the bot replies to the same user again
+     */
+    public PrivateMessages(@NotNull IRCBot bot, @NotNull PlayerIndex players, @NotNull Template<IRC2Minestom.Message> toPlayerFormat,
+            @NotNull Template<Minestom2IRC.Message> toIRCFormat, @NotNull List<Preprocessor> toPlayerProcessors, @NotNull List<Preprocessor> toIRCProcessors,
+            int replyCooldownSeconds) {
+        this.bot = bot;
+        this.players = players;
+        this.toPlayerFormat = toPlayerFormat;
+        this.toIRCFormat = toIRCFormat;
+        this.toPlayerProcessors = List.copyOf(toPlayerProcessors);
+        this.toIRCProcessors = List.copyOf(toIRCProcessors);
+        this.replyCooldown = TimeUnit.SECONDS.toNanos(replyCooldownSeconds);
+    }
+
+    /**
+     * Gets whether the bot can see an IRC user, which is the case if the user shares a channel with the bot
+     * or exchanged private messages with it within the last hour.
+     *
+     * @param nick the nick of the user, case insensitive
+     * @return true if the user is known to the bot
+     */
+    public boolean knows(@NotNull String nick) {
+        if (this.bot.getUsers().get(nick) != null) {
+            return true;
+        }
+        String key = nick.toLowerCase(Locale.ROOT);
+        synchronized (this.correspondents) {
+            Long last = this.correspondents.get(key);
+            if (last == null) {
+                return false;
+            }
+            if (System.nanoTime() - last > CORRESPONDENT_TIMEOUT) {
+                this.correspondents.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets whether a target names an IRC user, private messages can not be sent to channels.
+     *
+     * @param target the nick or channel
+     * @return true if the target is not a channel
+     */
+    public boolean isUser(@NotNull String target) {
+        return !this.bot.isChannel(target);
+    }
+
+    /**
+     * Remembers that an IRC user exchanged a private message with the bot, so replies are sent by this bot as well.
+     *
+     * @param nick the nick of the user
+     */
+    public void correspond(@NotNull String nick) {
+        synchronized (this.correspondents) {
+            this.correspondents.put(nick.toLowerCase(Locale.ROOT), System.nanoTime());
+        }
+    }
+
+    /**
+     * Handles a private message an IRC user sent to the bot. The first word of the message names the player
+     * the rest of it is for. The user is told if the player is not online, unless the bot replied to the user recently.
+     *
+     * @param nick the nick of the sender
+     * @param message the message as sent to the bot
+     */
+    public void fromIRC(@NotNull String nick, @NotNull String message) {
+        message = message.trim();
+        int space = message.indexOf(' ');
+        String name = space == -1 ? message : message.substring(0, space);
+        if (name.endsWith(":") || name.endsWith(",")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        String text = space == -1 ? "" : message.substring(space + 1).trim();
+        if (name.isEmpty() || text.isEmpty()) {
+            this.reply(nick, "Send private messages to players as \"<player>: <message>\"");
+            return;
+        }
+        Player player = this.players.get(name);
+        if (player == null) {
+            this.reply(nick, name + " is not online.");
+            return;
+        }
+        PreprocessedMessage processed = process(this.toPlayerProcessors, text, nick);
+        if (processed.isCancelled()) {
+            this.reply(nick, "Your message was not delivered.");
+            return;
+        }
+        player.sendMessage(ColoredText.of(this.toPlayerFormat.render(new IRC2Minestom.Message(nick, processed.getMessage(), MessageType.CHAT))));
+    }
+
+    /**
+     * Sends a private message of a player to an IRC user.
+     *
+     * @param sender the name of the player
+     * @param nick the nick of the IRC user
+     * @param message the text of the message
+     * @return false if the message was blocked by a preprocessor
+     */
+    public boolean toIRC(@NotNull String sender, @NotNull String nick, @NotNull String message) {
+        PreprocessedMessage processed = process(this.toIRCProcessors, message, sender);
+        if (processed.isCancelled()) {
+            return false;
+        }
+        this.correspond(nick);
+        this.bot.sendMessage(nick, this.toIRCFormat.render(new Minestom2IRC.Message(sender, processed.getMessage())), MessageType.CHAT, null);
+        return true;
+    }
+
+    private void reply(@NotNull String nick, @NotNull String text) {
+        if (this.acquireReply(nick)) {
+            this.bot.sendReply(nick, text);
+        }
+    }
+
+    /**
+     * Checks whether the bot may reply to the given user now and if so starts the cooldown of the user.
+     *
+     * @param nick the nick of the user
+     * @return true if the reply should be sent
+     */
+    private boolean acquireReply(@NotNull String nick) {
+        String key = nick.toLowerCase(Locale.ROOT);
+        long now = System.nanoTime();
+        synchronized (this.lastReplies) {
+            Long last = this.lastReplies.get(key);
+            if (last != null && now - last < this.replyCooldown) {
+                return false;
+            }
+            this.lastReplies.put(key, now);
+            return true;
+        }
+    }
+
+    @NotNull
+    private static PreprocessedMessage process(@NotNull List<Preprocessor> processors, @NotNull String text, @NotNull String sender) {
+        PreprocessedMessage processed = new PreprocessedMessage(text, sender);
+        for (Preprocessor processor : processors) {
+            processor.preProcess(processed);
+            if (processed.isCancelled()) {
+                break;
+            }
+        }
+        return processed;
+    }
+}
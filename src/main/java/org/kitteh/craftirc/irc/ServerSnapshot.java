@@ -0,0 +1,176 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.event.player.PlayerDisconnectEvent;
+import net.minestom.server.event.player.PlayerLoginEvent;
+import net.minestom.server.timer.Task;
+import net.minestom.server.utils.time.TimeUnit;
+
+/**
+ * A snapshot of the server state that is answered to IRC commands.
+ * The player list is updated as players log in or disconnect so answering a request never
+ * needs to walk over all online players.
+ * @since 5.0.2
+ */
+public final class ServerSnapshot {
+
+    /**
+     * The amount of ticks the TPS is averaged over.
+     */
+    private static final int TPS_WINDOW = 20;
+
+    /**
+     * The length after which the player list is cut off so it still fits into a single IRC line.
+     */
+    private static final int MAX_LIST_LENGTH = 350;
+
+    private final NavigableSet<String> players = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final AtomicInteger playerCount = new AtomicInteger();
+    /**
+     * Counts the changes of the online players, the cached list is only valid for the version it was built from.
+     */
+    private final AtomicInteger playersVersion = new AtomicInteger();
+    private volatile CachedList playerList;
+
+    private final long[] tickTimes = new long[TPS_WINDOW];
+    private int tick;
+    private volatile double tps = MinecraftServer.TICK_PER_SECOND;
+    private final Task tickTask;
+
+    private static final class CachedList {
+        private final int version;
+        private final String list;
+
+        private CachedList(int version, String list) {
+            this.version = version;
+            this.list = list;
+        }
+    }
+
+    ServerSnapshot(@NotNull PlayerHooks playerHooks) {
+        MinecraftServer.getConnectionManager().getOnlinePlayers().forEach(player -> this.addPlayer(player.getUsername()));
+        playerHooks.add(PlayerLoginEvent.class, event -> this.addPlayer(event.getPlayer().getUsername()));
+        playerHooks.add(PlayerDisconnectEvent.class, event -> this.removePlayer(event.getPlayer().getUsername()));
+        this.tickTask = MinecraftServer.getSchedulerManager().buildTask(this::onTick).repeat(1, TimeUnit.TICK).schedule();
+    }
+
+    private void addPlayer(@NotNull String name) {
+        if (this.players.add(name)) {
+            this.playerCount.incrementAndGet();
+            this.playersVersion.incrementAndGet();
+        }
+    }
+
+    private void removePlayer(@NotNull String name) {
+        if (this.players.remove(name)) {
+            this.playerCount.decrementAndGet();
+            this.playersVersion.incrementAndGet();
+        }
+    }
+
+    private void onTick() {
+        long now = System.nanoTime();
+        int slot = this.tick++ % TPS_WINDOW;
+        long windowStart = this.tickTimes[slot];
+        this.tickTimes[slot] = now;
+        if (this.tick > TPS_WINDOW) {
+            double measured = TPS_WINDOW * 1_000_000_000D / (now - windowStart);
+            this.tps = Math.min(measured, MinecraftServer.TICK_PER_SECOND);
+        }
+    }
+
+    void shutdown() {
+        this.tickTask.cancel();
+    }
+
+    /**
+     * Gets the amount of online players.
+     *
+     * @return online player count
+     */
+    public int getPlayerCount() {
+        return this.playerCount.get();
+    }
+
+    /**
+     * Gets the comma separated list of the online players in alphabetical order.
+     * The list is only rebuilt after the online players changed.
+     *
+     * @return online player list
+     */
+    @NotNull
+    public String getPlayerList() {
+        // The version is read before the players, so a list built while the players change is already outdated
+        int version = this.playersVersion.get();
+        CachedList cached = this.playerList;
+        if (cached != null && cached.version == version) {
+            return cached.list;
+        }
+        StringBuilder builder = new StringBuilder();
+        int listed = 0;
+        for (Iterator<String> it = this.players.iterator(); it.hasNext();) {
+            String name = it.next();
+            if (builder.length() + name.length() + 2 > MAX_LIST_LENGTH) {
+                builder.append(" and more");
+                break;
+            }
+            if (listed++ != 0) {
+                builder.append(", ");
+            }
+            builder.append(name);
+        }
+        String list = builder.toString();
+        this.playerList = new CachedList(version, list);
+        return list;
+    }
+
+    /**
+     * Gets the ticks per second averaged over the last second.
+     *
+     * @return ticks per second
+     */
+    public double getTps() {
+        return this.tps;
+    }
+
+    /**
+     * Gets the time since the server was started.
+     *
+     * @return uptime in milliseconds
+     */
+    public long getUptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.irc;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Holds the state CraftIRC keeps about the IRC users a bot can see.
+ * Each user is represented by a single {@link UserState} object which is the stable identity of the user.
+ * The table merely indexes these objects by their current nick, so a nick change moves the same object
+ * to it's new nick instead of copying or losing any of it's state.
+ * Users are stored once they join a channel of the bot or talk in it, so the table doubles as the index of
+ * the nicks the bot can see, which is used to route private messages.
+ * @since 5.0.2
+ */
+public final class UserStateTable {
+
+    /**
+     * The state of a single IRC user.
+     * @since 5.0.2
+     */
+    public static final class UserState {
+        private volatile String nick;
+        private volatile boolean away;
+
+        private UserState(@NotNull String nick) {
+            this.nick = nick;
+        }
+
+        /**
+         * Gets the current nick of the user.
+         *
+         * @return current nick
+         */
+        @NotNull
+        public String getNick() {
+            return this.nick;
+        }
+
+        /**
+         * Gets whether the user is marked as being away.
+         *
+         * @return true if away
+         */
+        public boolean isAway() {
+            return this.away;
+        }
+
+        /**
+         * Sets whether the user is marked as being away.
+         *
+         * @param away true if away
+         * @return true if the away state changed
+         */
+        public boolean setAway(boolean away) {
+            if (this.away == away) {
+                return false;
+            }
+            this.away = away;
+            return true;
+        }
+    }
+
+    private final Map<String, UserState> byNick = new ConcurrentHashMap<>();
+
+    @NotNull
+    private static String key(@NotNull String nick) {
+        return nick.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the state of a user.
+     *
+     * @param nick nick of the user, case insensitive
+     * @return the state of the user or null if no state is tracked for the user
+     */
+    @Nullable
+    public UserState get(@NotNull String nick) {
+        return this.byNick.get(key(nick));
+    }
+
+    /**
+     * Gets the state of a user, creating it if it is not yet tracked.
+     *
+     * @param nick nick of the user, case insensitive
+     * @return the state of the user
+     */
+    @NotNull
+    public UserState getOrCreate(@NotNull String nick) {
+        return this.byNick.computeIfAbsent(key(nick), k -> new UserState(nick));
+    }
+
+    /**
+     * Stops tracking a user, usually because the bot can no longer see it.
+     *
+     * @param nick nick of the user, case insensitive
+     * @return the state that was tracked for the user, or null if none was tracked
+     */
+    @Nullable
+    public UserState remove(@NotNull String nick) {
+        return this.byNick.remove(key(nick));
+    }
+
+    /**
+     * Moves the state of a user to it's new nick.
+     *
+     * @param oldNick previous nick of the user
+     * @param newNick new nick of the user
+     */
+    public void rename(@NotNull String oldNick, @NotNull String newNick) {
+        UserState state = this.byNick.remove(key(oldNick));
+        if (state != null) {
+            state.nick = newNick;
+            this.byNick.put(key(newNick), state);
+        }
+    }
+
+    /**
+     * Gets the amount of users whose state is tracked.
+     *
+     * @return tracked user count
+     */
+    public int size() {
+        return this.byNick.size();
+    }
+}
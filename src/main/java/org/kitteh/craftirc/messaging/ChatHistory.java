@@ -0,0 +1,189 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import net.minestom.server.chat.ColoredText;
+import net.minestom.server.chat.JsonMessage;
+
+/**
+ * Keeps the last bridged chat messages so they can be replayed to players that join.
+ * The messages are kept UTF-8 encoded within fixed size slots of a single direct buffer that is allocated once,
+ * so the history uses the same amount of memory no matter how many or how large the messages are.
+ * Messages that do not fit into a slot are shortened, chat components that do not fit are stored as plain text.
+ * @since 5.0.2
+ */
+public final class ChatHistory {
+
+    private static final byte TEXT = 0;
+    private static final byte COMPONENT = 1;
+    private static final int HEADER_SIZE = 3; // the kind and the length of the content
+
+    private final ByteBuffer slots;
+    private final int slotSize;
+    private final int capacity;
+    private long written;
+
+    /**
+     * Creates a new history.
+     * @param size The amount of messages to keep
+     * @param slotBytes The amount of bytes a single message may take up at most
+     * @since 5.0.2
+     */
+    public ChatHistory(int size, int slotBytes) {
+        capacity = Math.max(size, 1);
+        slotSize = Math.min(Math.max(slotBytes, HEADER_SIZE + 16), HEADER_SIZE + Short.MAX_VALUE);
+        slots = ByteBuffer.allocateDirect(capacity * slotSize);
+    }
+
+    /**
+     * Adds a message given as text with legacy color codes.
+     * @param text The message
+     * @since 5.0.2
+     */
+    public void addText(@NotNull String text) {
+        write(TEXT, truncate(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Adds a message given as a chat component.
+     * @param message The message
+     * @since 5.0.2
+     */
+    public void addComponent(@NotNull JsonMessage message) {
+        JsonObject json = message.getJsonObject();
+        byte[] encoded = json.toString().getBytes(StandardCharsets.UTF_8);
+        if (encoded.length <= slotSize - HEADER_SIZE) {
+            write(COMPONENT, encoded);
+            return;
+        }
+        // A shortened component would no longer be valid JSON
+        StringBuilder text = new StringBuilder();
+        appendText(json, text);
+        addText(text.toString());
+    }
+
+    private static void appendText(@NotNull JsonElement element, @NotNull StringBuilder text) {
+        if (element.isJsonPrimitive()) {
+            text.append(element.getAsString());
+        } else if (element.isJsonArray()) {
+            for (JsonElement child : element.getAsJsonArray()) {
+                appendText(child, text);
+            }
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            if (object.has("text")) {
+                text.append(object.get("text").getAsString());
+            }
+            JsonArray extra = object.getAsJsonArray("extra");
+            if (extra != null) {
+                appendText(extra, text);
+            }
+        }
+    }
+
+    /**
+     * Shortens encoded text to the content size of a slot without cutting a character in half.
+     */
+    @NotNull
+    private byte[] truncate(@NotNull byte[] encoded) {
+        int max = slotSize - HEADER_SIZE;
+        if (encoded.length <= max) {
+            return encoded;
+        }
+        int end = max;
+        while (end > 0 && (encoded[end] & 0xC0) == 0x80) {
+            end--; // a continuation byte, the character started before
+        }
+        byte[] shortened = new byte[end];
+        System.arraycopy(encoded, 0, shortened, 0, end);
+        return shortened;
+    }
+
+    private synchronized void write(byte kind, @NotNull byte[] content) {
+        int offset = (int) (written % capacity) * slotSize;
+        slots.put(offset, kind);
+        slots.putShort(offset + 1, (short) content.length);
+        ByteBuffer slot = slots.duplicate();
+        slot.position(offset + HEADER_SIZE);
+        slot.put(content);
+        written++;
+    }
+
+    /**
+     * Obtains the last messages, oldest first.
+     * @param count The maximum amount of messages
+     * @return The messages, empty if there are none
+     * @since 5.0.2
+     */
+    public @NotNull List<JsonMessage> getLast(int count) {
+        List<byte[]> contents;
+        byte[] kinds;
+        synchronized (this) {
+            int amount = (int) Math.min(Math.min(count, capacity), written);
+            contents = new ArrayList<>(amount);
+            kinds = new byte[amount];
+            for (long i = written - amount; i < written; i++) {
+                int offset = (int) (i % capacity) * slotSize;
+                kinds[contents.size()] = slots.get(offset);
+                byte[] content = new byte[slots.getShort(offset + 1)];
+                ByteBuffer slot = slots.duplicate();
+                slot.position(offset + HEADER_SIZE);
+                slot.get(content);
+                contents.add(content);
+            }
+        }
+        List<JsonMessage> messages = new ArrayList<>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            String content = new String(contents.get(i), StandardCharsets.UTF_8);
+            if (kinds[i] == COMPONENT) {
+                messages.add(new JsonMessage.RawJsonMessage(JsonParser.parseString(content).getAsJsonObject()));
+            } else {
+                messages.add(ColoredText.of(content));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Obtains the amount of memory the history takes up, which does not change after it was created.
+     * @return The size of the buffer in bytes
+     * @since 5.0.2
+     */
+    public int getMemorySize() {
+        return slots.capacity();
+    }
+}
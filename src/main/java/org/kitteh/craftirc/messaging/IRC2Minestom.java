@@ -24,8 +24,11 @@
  */
 package org.kitteh.craftirc.messaging;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.jetbrains.annotations.NotNull;
@@ -33,11 +36,17 @@ import org.jetbrains.annotations.Nullable;
 import org.kitteh.craftirc.messaging.processing.MessageProcessingStage;
 import org.kitteh.craftirc.messaging.processing.PreprocessedMessage;
 import org.kitteh.craftirc.messaging.processing.Preprocessor;
+import org.kitteh.craftirc.messaging.transport.BroadcastSink;
+import org.kitteh.craftirc.messaging.transport.Delivery;
+import org.kitteh.craftirc.messaging.transport.IncomingMessage;
+import org.kitteh.craftirc.messaging.transport.MessageSink;
+import org.kitteh.craftirc.metrics.DispatchEvent;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
 
-import net.minestom.server.MinecraftServer;
 import net.minestom.server.chat.JsonMessage;
 
-public class IRC2Minestom {
+public class IRC2Minestom implements MessageSink<IncomingMessage> {
 
     /**
      * Represents a message that can be sent to Minestom that should usually originate from
@@ -50,6 +59,7 @@ public class IRC2Minestom {
         protected final @Nullable String message;
         protected final @NotNull MessageType type;
         protected @Nullable JsonMessage formattedMessage;
+        protected @NotNull List<String> links = Collections.emptyList();
 
         /**
          * Constructs a message of the given type.
@@ -109,6 +119,24 @@ public class IRC2Minestom {
         public @NotNull MessageType getType() {
             return type;
         }
+
+        /**
+         * Obtains the links within the message that should be made clickable.
+         * @return The links in the order they appear in, empty if there are none
+         * @since 5.0.2
+         */
+        public @NotNull List<String> getLinks() {
+            return links;
+        }
+
+        /**
+         * Sets the links within the message that should be made clickable.
+         * @param messageLinks The links in the order they appear in
+         * @since 5.0.2
+         */
+        public void setLinks(@NotNull List<String> messageLinks) {
+            links = messageLinks;
+        }
     }
 
     /**
@@ -119,10 +147,40 @@ public class IRC2Minestom {
         public void process(final Message msg);
     }
 
-    private Set<Preprocessor> earliestProcessors = new HashSet<>();
-    private Set<Preprocessor> earlyProcessors = new HashSet<>();
-    private Set<Processor> mediumProcessors = new HashSet<>();
-    private Set<Processor> lateProcessors = new HashSet<>();
+    private Set<Preprocessor> earliestProcessors = new LinkedHashSet<>();
+    private Set<Preprocessor> earlyProcessors = new LinkedHashSet<>();
+    private Set<Processor> mediumProcessors = new LinkedHashSet<>();
+    private Set<Processor> lateProcessors = new LinkedHashSet<>();
+    private final List<BridgeListener> listeners = new CopyOnWriteArrayList<>();
+    private final @NotNull String botName;
+    private @NotNull MessageSink<Delivery> sink;
+    private @Nullable LatencyTracer tracer;
+    private @Nullable ChatHistory history;
+
+    public IRC2Minestom() {
+        this("unknown");
+    }
+
+    /**
+     * Creates a bridge for the given bot.
+     * @param bot The name of the bot, which is used when reporting to the flight recorder
+     * @since 5.0.2
+     */
+    public IRC2Minestom(@NotNull String bot) {
+        this(bot, new BroadcastSink());
+    }
+
+    /**
+     * Creates a bridge for the given bot that hands the formatted messages to the given sink instead of
+     * showing them to the players of the server.
+     * @param bot The name of the bot, which is used when reporting to the flight recorder
+     * @param minestomSink The sink the messages are sent to
+     * @since 5.0.2
+     */
+    public IRC2Minestom(@NotNull String bot, @NotNull MessageSink<Delivery> minestomSink) {
+        botName = bot;
+        sink = minestomSink;
+    }
 
     public void registerProcessor (@NotNull MessageProcessingStage stage, @NotNull Processor processor) {
         switch (stage) {
@@ -152,21 +210,163 @@ public class IRC2Minestom {
         }
     }
 
+    /**
+     * Sets the sink the formatted messages are sent to, for example to show them only to the players within
+     * some instances, see {@link org.kitteh.craftirc.messaging.transport.InstanceScope}.
+     * @param minestomSink The sink
+     * @since 5.0.2
+     */
+    public void setSink(@NotNull MessageSink<Delivery> minestomSink) {
+        sink = minestomSink;
+    }
+
+    /**
+     * Adds a listener that is informed about every message issued to this bridge that was not cancelled.
+     * @param listener The listener to add
+     * @since 5.0.2
+     */
+    public void addListener(@NotNull BridgeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Sets the tracer that samples the chat messages passing this bridge.
+     * @param latencyTracer The tracer of the bot, or null to not trace messages
+     * @since 5.0.2
+     */
+    public void setTracer(@Nullable LatencyTracer latencyTracer) {
+        tracer = latencyTracer;
+    }
+
+    /**
+     * Gets the tracer that samples the chat messages passing this bridge.
+     * @return The tracer, or null if messages are not traced
+     * @since 5.0.2
+     */
+    public @Nullable LatencyTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets the history the chat messages passing this bridge are added to, as they are shown in Minestom.
+     * @param chatHistory The history, or null to not keep the messages
+     * @since 5.0.2
+     */
+    public void setHistory(@Nullable ChatHistory chatHistory) {
+        history = chatHistory;
+    }
+
+    private void notifyListeners(@NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        for (BridgeListener listener : listeners) {
+            listener.onMessage(type, user, content);
+        }
+    }
+
+    /**
+     * Issues and processes a message of any type.
+     * @param type The type of the message
+     * @param user The user that caused the message
+     * @param content The content of the message, the new nick for nick changes. Ignored for joins.
+     * @throws Exception Any exception that happened during the processing phase
+     * @since 5.0.2
+     */
+    public void issue(@NotNull MessageType type, @NotNull String user, @Nullable String content) throws Exception {
+        switch (type) {
+        case CHAT:
+            issueMessage(user, content == null ? "" : content);
+            break;
+        case JOIN:
+            issueJoin(user);
+            break;
+        case QUIT:
+        case KICK:
+            issueQuit(user, content == null ? "" : content, type == MessageType.KICK);
+            break;
+        case AWAY:
+            issueAway(user);
+            break;
+        case BACK:
+            issueBack(user);
+            break;
+        case NICK:
+            issueNick(user, content == null ? user : content);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown message type " + type);
+        }
+    }
+
     public void issueMessage(String playername, String messageContent) {
+        issueMessage(playername, messageContent, null);
+    }
+
+    /**
+     * Issues and processes a chat message, recording the hops the message passes in the given trace.
+     * @param playername The nick of the user that sent the message
+     * @param messageContent The content of the message
+     * @param trace The trace of the message, or null if the message is not sampled
+     * @since 5.0.2
+     */
+    public void issueMessage(String playername, String messageContent, @Nullable Trace trace) {
+        if (trace != null) {
+            trace.mark(Trace.Hop.ENQUEUE);
+        }
+        final DispatchEvent event = DispatchEvent.begin(botName, Trace.Direction.TO_MINESTOM, MessageType.CHAT);
         final PreprocessedMessage preMSG = new PreprocessedMessage(messageContent, playername);
         earliestProcessors.forEach(proc -> proc.preProcess(preMSG));
+        event.stage(MessageProcessingStage.PROCESS);
+        if (trace != null) {
+            trace.mark(Trace.Hop.PROCESS);
+        }
         earlyProcessors.forEach(proc -> proc.preProcess(preMSG));
+        event.stage(MessageProcessingStage.POST_PROCESS);
+        if (trace != null) {
+            trace.mark(Trace.Hop.POST_PROCESS);
+        }
+        if (preMSG.isCancelled()) {
+            event.cancelled();
+            return;
+        }
+        notifyListeners(MessageType.CHAT, playername, preMSG.getMessage());
         final Message msg = new Message(playername, preMSG.getMessage(), MessageType.CHAT);
+        msg.setLinks(preMSG.getLinks());
         mediumProcessors.forEach(proc -> proc.process(msg));
+        event.stage(MessageProcessingStage.FORMAT);
+        if (trace != null) {
+            trace.mark(Trace.Hop.FORMAT);
+        }
         lateProcessors.forEach(proc -> proc.process(msg));
-        MinecraftServer.getConnectionManager().broadcastMessage(msg.getMessage());
+        event.stage(MessageProcessingStage.POSTFORMAT);
+        if (trace != null) {
+            trace.mark(Trace.Hop.POSTFORMAT);
+        }
+        if (history != null && msg.getMessage() != null) {
+            history.addComponent(msg.getMessage());
+        }
+        if (preMSG.getMentions().isEmpty()) {
+            sink.send(List.of(Delivery.toAll(msg.getMessage())));
+            event.sent();
+            if (trace != null) {
+                trace.finish(Trace.Hop.BROADCAST);
+            }
+            return;
+        }
+        // The mentioned players are shown a highlighted copy of the message instead
+        final Message highlighted = new Message(playername, preMSG.getHighlightedMessage(), MessageType.CHAT);
+        highlighted.setLinks(preMSG.getLinks());
+        mediumProcessors.forEach(proc -> proc.process(highlighted));
+        lateProcessors.forEach(proc -> proc.process(highlighted));
+        sink.send(List.of(Delivery.toAll(msg.getMessage(), highlighted.getMessage(), preMSG.getMentions())));
+        event.sent();
+        if (trace != null) {
+            trace.finish(Trace.Hop.BROADCAST);
+        }
     }
 
     public void issueJoin(String userName) {
+        notifyListeners(MessageType.JOIN, userName, null);
         final Message msg = new Message(userName, true);
-        mediumProcessors.forEach(proc -> proc.process(msg));
-        lateProcessors.forEach(proc -> proc.process(msg));
-        MinecraftServer.getConnectionManager().broadcastMessage(msg.getMessage());
+        dispatch(msg);
     }
 
     @Deprecated(since = "5.0.1", forRemoval = true)
@@ -187,10 +387,9 @@ public class IRC2Minestom {
      * @since 5.0.1
      */
     public void issueQuit(@NotNull String userName, @NotNull String message, boolean isKick) throws Exception {
+        notifyListeners(isKick ? MessageType.KICK : MessageType.QUIT, userName, message);
         final Message msg = new Message(userName, message, isKick ? MessageType.KICK : MessageType.QUIT);
-        mediumProcessors.forEach(proc -> proc.process(msg));
-        lateProcessors.forEach(proc -> proc.process(msg));
-        MinecraftServer.getConnectionManager().broadcastMessage(msg.getMessage());
+        dispatch(msg);
     }
 
     /**
@@ -199,10 +398,9 @@ public class IRC2Minestom {
      * @since 5.0.1
      */
     public void issueAway(@NotNull String userName) {
+        notifyListeners(MessageType.AWAY, userName, null);
         final Message msg = new Message(userName, "", MessageType.AWAY);
-        mediumProcessors.forEach(proc -> proc.process(msg));
-        lateProcessors.forEach(proc -> proc.process(msg));
-        MinecraftServer.getConnectionManager().broadcastMessage(msg.getMessage());
+        dispatch(msg);
     }
 
     /**
@@ -211,9 +409,50 @@ public class IRC2Minestom {
      * @since 5.0.1
      */
     public void issueBack(@NonNull String userName) {
+        notifyListeners(MessageType.BACK, userName, null);
         final Message msg = new Message(userName, "", MessageType.BACK);
+        dispatch(msg);
+    }
+
+    /**
+     * Issues and processes a nick change message.
+     * @param oldNick The nick the user had before the change
+     * @param newNick The nick the user has now, passed as the content of the message
+     * @since 5.0.2
+     */
+    public void issueNick(@NotNull String oldNick, @NotNull String newNick) {
+        notifyListeners(MessageType.NICK, oldNick, newNick);
+        final Message msg = new Message(oldNick, newNick, MessageType.NICK);
+        dispatch(msg);
+    }
+
+    /**
+     * Formats a message and broadcasts it to all players.
+     */
+    private void dispatch(@NotNull Message msg) {
+        final DispatchEvent event = DispatchEvent.begin(botName, Trace.Direction.TO_MINESTOM, msg.getType());
         mediumProcessors.forEach(proc -> proc.process(msg));
+        event.stage(MessageProcessingStage.FORMAT);
         lateProcessors.forEach(proc -> proc.process(msg));
-        MinecraftServer.getConnectionManager().broadcastMessage(msg.getMessage());
+        event.stage(MessageProcessingStage.POSTFORMAT);
+        sink.send(List.of(Delivery.toAll(msg.getMessage())));
+        event.sent();
+    }
+
+    /**
+     * Issues a batch of messages in order, see {@link #issue(MessageType, String, String)}.
+     * A message that fails to be processed does not keep the remaining messages from being issued.
+     * @param batch The messages to issue
+     * @since 5.0.2
+     */
+    @Override
+    public void send(@NotNull List<IncomingMessage> batch) {
+        for (IncomingMessage message : batch) {
+            try {
+                issue(message.getType(), message.getUser(), message.getContent());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
@@ -64,5 +64,11 @@ public enum MessageType {
      * The message was created as the user returned from it's away state
      * @since 5.0.1
      */
-    BACK;
+    BACK,
+
+    /**
+     * The message was created as the user changed it's nick
+     * @since 5.0.2
+     */
+    NICK;
 }
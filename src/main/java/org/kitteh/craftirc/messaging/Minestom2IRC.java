@@ -24,18 +24,30 @@
  */
 package org.kitteh.craftirc.messaging;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.messaging.formatting.ComponentConverter;
 import org.kitteh.craftirc.messaging.processing.MessageProcessingStage;
 import org.kitteh.craftirc.messaging.processing.PreprocessedMessage;
 import org.kitteh.craftirc.messaging.processing.Preprocessor;
+import org.kitteh.craftirc.messaging.transport.IRCLine;
+import org.kitteh.craftirc.messaging.transport.IncomingMessage;
+import org.kitteh.craftirc.messaging.transport.MessageSink;
+import org.kitteh.craftirc.metrics.DispatchEvent;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
 
-public class Minestom2IRC {
+import net.minestom.server.chat.JsonMessage;
+
+public class Minestom2IRC implements MessageSink<IncomingMessage> {
 
     /**
      * Represents a message that can be sent to IRC that should usually originate from
@@ -90,18 +102,35 @@ public class Minestom2IRC {
         public void process(final Message msg);
     }
 
-    private final IRCBot botInstance;
+    private final @NotNull String botName;
+    private final @NotNull MessageSink<IRCLine> sink;
     private final Collection<String> channelNames;
+    private @Nullable LatencyTracer tracer;
+    private @Nullable ChatHistory history;
+    private final List<BridgeListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<MessageSink<IRCLine>> taps = new CopyOnWriteArrayList<>();
 
     public Minestom2IRC(IRCBot bot, Collection<String> channels) {
-        botInstance = bot;
+        this(bot.getName(), bot, channels);
+    }
+
+    /**
+     * Creates a bridge that hands the formatted messages to the given sink instead of an IRC client.
+     * @param bot The name of the bot, which is used when reporting to the flight recorder
+     * @param ircSink The sink the messages for the channels are sent to
+     * @param channels The channels the messages are sent to
+     * @since 5.0.2
+     */
+    public Minestom2IRC(@NotNull String bot, @NotNull MessageSink<IRCLine> ircSink, Collection<String> channels) {
+        botName = bot;
+        sink = ircSink;
         channelNames = channels;
     }
 
-    private Set<Preprocessor> earliestProcessors = new HashSet<>();
-    private Set<Preprocessor> earlyProcessors = new HashSet<>();
-    private Set<Processor> mediumProcessors = new HashSet<>();
-    private Set<Processor> lateProcessors = new HashSet<>();
+    private Set<Preprocessor> earliestProcessors = new LinkedHashSet<>();
+    private Set<Preprocessor> earlyProcessors = new LinkedHashSet<>();
+    private Set<Processor> mediumProcessors = new LinkedHashSet<>();
+    private Set<Processor> lateProcessors = new LinkedHashSet<>();
 
     public void registerProcessor (@NotNull MessageProcessingStage stage, @NotNull Processor processor) {
         switch (stage) {
@@ -131,28 +160,200 @@ public class Minestom2IRC {
         }
     }
 
+    /**
+     * Sets the tracer that samples the chat messages passing this bridge.
+     * @param latencyTracer The tracer of the bot, or null to not trace messages
+     * @since 5.0.2
+     */
+    public void setTracer(@Nullable LatencyTracer latencyTracer) {
+        tracer = latencyTracer;
+    }
+
+    /**
+     * Gets the tracer that samples the chat messages passing this bridge.
+     * @return The tracer, or null if messages are not traced
+     * @since 5.0.2
+     */
+    public @Nullable LatencyTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Adds a listener that is informed about every message issued to this bridge that was not cancelled.
+     * @param listener The listener to add
+     * @since 5.0.2
+     */
+    public void addListener(@NotNull BridgeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds a sink that receives a copy of every formatted line this bridge sends to IRC, after the lines were passed
+     * to the bridge's own sink.
+     * @param tap The sink to add
+     * @since 5.0.2
+     */
+    public void addTap(@NotNull MessageSink<IRCLine> tap) {
+        taps.add(tap);
+    }
+
+    private void notifyListeners(@NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        for (BridgeListener listener : listeners) {
+            listener.onMessage(type, user, content);
+        }
+    }
+
+    /**
+     * Sets the history the chat messages passing this bridge are added to, as they were shown in Minestom.
+     * @param chatHistory The history, or null to not keep the messages
+     * @since 5.0.2
+     */
+    public void setHistory(@Nullable ChatHistory chatHistory) {
+        history = chatHistory;
+    }
+
     public void issueMessage(String playername, String messageContent) {
+        issueMessage(playername, messageContent, null);
+    }
+
+    /**
+     * Issues and processes a chat message, recording the hops the message passes in the given trace.
+     * @param playername The name of the player that sent the message
+     * @param messageContent The content of the message
+     * @param trace The trace of the message, or null if the message is not sampled
+     * @since 5.0.2
+     */
+    public void issueMessage(String playername, String messageContent, @Nullable Trace trace) {
+        issueMessage(playername, messageContent, null, trace);
+    }
+
+    private void issueMessage(String playername, String messageContent, @Nullable JsonMessage rendered, @Nullable Trace trace) {
+        if (trace != null) {
+            trace.mark(Trace.Hop.ENQUEUE);
+        }
+        final DispatchEvent event = DispatchEvent.begin(botName, Trace.Direction.TO_IRC, MessageType.CHAT);
         final PreprocessedMessage preMSG = new PreprocessedMessage(messageContent, playername);
         earliestProcessors.forEach(proc -> proc.preProcess(preMSG));
+        event.stage(MessageProcessingStage.PROCESS);
+        if (trace != null) {
+            trace.mark(Trace.Hop.PROCESS);
+        }
         earlyProcessors.forEach(proc -> proc.preProcess(preMSG));
+        event.stage(MessageProcessingStage.POST_PROCESS);
+        if (trace != null) {
+            trace.mark(Trace.Hop.POST_PROCESS);
+        }
+        if (preMSG.isCancelled()) {
+            event.cancelled();
+            return;
+        }
+        notifyListeners(MessageType.CHAT, playername, preMSG.getMessage());
+        if (history != null) {
+            if (rendered != null) {
+                history.addComponent(rendered);
+            } else {
+                history.addText("<" + playername + "> " + messageContent);
+            }
+        }
         final Message msg = new Message(playername, preMSG.getMessage());
         mediumProcessors.forEach(proc -> proc.process(msg));
+        event.stage(MessageProcessingStage.FORMAT);
+        if (trace != null) {
+            trace.mark(Trace.Hop.FORMAT);
+        }
         lateProcessors.forEach(proc -> proc.process(msg));
-        channelNames.forEach(channel -> botInstance.sendMessage(channel, msg.getMessage()));
+        event.stage(MessageProcessingStage.POSTFORMAT);
+        if (trace != null) {
+            trace.mark(Trace.Hop.POSTFORMAT);
+        }
+        sendToChannels(msg, trace);
+        event.sent();
+    }
+
+    /**
+     * Issues and processes a chat message given as a chat component. The component is converted into
+     * IRC formatted text, so the styles of the component are kept.
+     * @param playername The name of the player that sent the message
+     * @param message The message as a chat component
+     * @param trace The trace of the message, or null if the message is not sampled
+     * @since 5.0.2
+     */
+    public void issueMessage(String playername, JsonMessage message, @Nullable Trace trace) {
+        issueMessage(playername, ComponentConverter.toIRC(message.getJsonObject()), message, trace);
     }
 
     public void issueJoin(String userName) {
-        final Message msg = new Message(userName, true);
-        mediumProcessors.forEach(proc -> proc.process(msg));
-        lateProcessors.forEach(proc -> proc.process(msg));
-        channelNames.forEach(channel -> botInstance.sendMessage(channel, msg.getMessage()));
+        notifyListeners(MessageType.JOIN, userName, null);
+        dispatch(new Message(userName, true));
     }
 
     public void issueQuit(String userName) {
-        final Message msg = new Message(userName, false);
+        notifyListeners(MessageType.QUIT, userName, null);
+        dispatch(new Message(userName, false));
+    }
+
+    /**
+     * Formats a message and sends it to all channels.
+     */
+    private void dispatch(@NotNull Message msg) {
+        final DispatchEvent event = DispatchEvent.begin(botName, Trace.Direction.TO_IRC, msg.getType());
         mediumProcessors.forEach(proc -> proc.process(msg));
+        event.stage(MessageProcessingStage.FORMAT);
         lateProcessors.forEach(proc -> proc.process(msg));
-        channelNames.forEach(channel -> botInstance.sendMessage(channel, msg.getMessage()));
+        event.stage(MessageProcessingStage.POSTFORMAT);
+        sendToChannels(msg, null);
+        event.sent();
+    }
+
+    private void sendToChannels(@NotNull Message msg, @Nullable Trace trace) {
+        List<IRCLine> lines = new ArrayList<>(channelNames.size());
+        for (String channel : channelNames) {
+            lines.add(new IRCLine(channel, msg.getMessage(), msg.getType(), trace));
+        }
+        sink.send(lines);
+        for (MessageSink<IRCLine> tap : taps) {
+            tap.send(lines);
+        }
+    }
+
+    /**
+     * Issues and processes a message of any type that can originate from Minestom.
+     * @param type The type of the message, chat, join or quit
+     * @param user The player that caused the message
+     * @param content The content of the message, ignored for joins and quits
+     * @since 5.0.2
+     */
+    public void issue(@NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        switch (type) {
+        case CHAT:
+            issueMessage(user, content == null ? "" : content);
+            break;
+        case JOIN:
+            issueJoin(user);
+            break;
+        case QUIT:
+            issueQuit(user);
+            break;
+        default:
+            throw new IllegalArgumentException("Messages of type " + type + " do not originate from Minestom");
+        }
+    }
+
+    /**
+     * Issues a batch of messages in order, see {@link #issue(MessageType, String, String)}.
+     * A message that fails to be processed does not keep the remaining messages from being issued.
+     * @param batch The messages to issue
+     * @since 5.0.2
+     */
+    @Override
+    public void send(@NotNull List<IncomingMessage> batch) {
+        for (IncomingMessage message : batch) {
+            try {
+                issue(message.getType(), message.getUser(), message.getContent());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public void addChannel(String channel) {
@@ -0,0 +1,300 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.formatting;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Converts Minecraft chat components into IRC formatted text.
+ * The component tree is walked once and the IRC control codes are written straight into the output, styles are
+ * inherited by the children of a component as in Minecraft. Only the changes between the style of the previous and
+ * the current piece of text are emitted, a reset is only needed when a style has to be removed.
+ * Hex colors are mapped to the closest of the 16 IRC colors, obfuscated text has no IRC equivalent and is kept as is.
+ * @since 5.0.2
+ */
+public final class ComponentConverter {
+
+    private static final char BOLD = 0x02;
+    private static final char COLOR = 0x03;
+    private static final char RESET = 0x0F;
+    private static final char ITALIC = 0x1D;
+    private static final char STRIKETHROUGH = 0x1E;
+    private static final char UNDERLINE = 0x1F;
+
+    // A style is packed into an int: the formatting flags in the lower 4 bits, the IRC color plus one above them
+    private static final int FLAG_BOLD = 1;
+    private static final int FLAG_ITALIC = 2;
+    private static final int FLAG_UNDERLINE = 4;
+    private static final int FLAG_STRIKETHROUGH = 8;
+    private static final int FLAGS = 15;
+    private static final int COLOR_SHIFT = 4;
+
+    // Using mIRC's specifications (https://www.mirc.com/colors.html), same as IRCColor
+    private static final Map<String, Integer> COLORS = new ImmutableMap.Builder<String, Integer>()
+            .put("black", 1)
+            .put("dark_blue", 2)
+            .put("dark_green", 3)
+            .put("dark_aqua", 10)
+            .put("dark_red", 5)
+            .put("dark_purple", 6)
+            .put("gold", 7)
+            .put("gray", 15)
+            .put("dark_gray", 14)
+            .put("blue", 12)
+            .put("green", 9)
+            .put("aqua", 11)
+            .put("red", 4)
+            .put("light_purple", 13)
+            .put("yellow", 8)
+            .put("white", 0)
+            .build();
+
+    private static final int[] IRC_RGB = {
+        0xFFFFFF, 0x000000, 0x00007F, 0x009300, 0xFF0000, 0x7F0000, 0x9C009C, 0xFC7F00,
+        0xFFFF00, 0x00FC00, 0x009393, 0x00FFFF, 0x0000FC, 0xFF00FF, 0x7F7F7F, 0xD2D2D2
+    };
+
+    private final StringBuilder out;
+    private int current;
+
+    private ComponentConverter(@NotNull StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Converts a component into IRC formatted text.
+     *
+     * @param component the component as JSON
+     * @return the formatted text
+     */
+    @NotNull
+    public static String toIRC(@NotNull JsonElement component) {
+        StringBuilder out = new StringBuilder();
+        appendIRC(component, out);
+        return out.toString();
+    }
+
+    /**
+     * Converts a component into IRC formatted text, appending it to the given builder.
+     * Formatting is reset at the end if the text left any formatting active.
+     *
+     * @param component the component as JSON
+     * @param out the builder to append to
+     */
+    public static void appendIRC(@NotNull JsonElement component, @NotNull StringBuilder out) {
+        ComponentConverter converter = new ComponentConverter(out);
+        converter.walk(component, 0);
+        if (converter.current != 0) {
+            out.append(RESET);
+        }
+    }
+
+    private void walk(@NotNull JsonElement component, int parentStyle) {
+        if (component.isJsonPrimitive()) {
+            this.text(component.getAsString(), parentStyle);
+        } else if (component.isJsonArray()) {
+            // The first element is the parent of the following elements
+            JsonArray array = component.getAsJsonArray();
+            if (array.size() == 0) {
+                return;
+            }
+            JsonElement first = array.get(0);
+            int style = first.isJsonObject() ? style(first.getAsJsonObject(), parentStyle) : parentStyle;
+            this.walk(first, parentStyle);
+            for (int i = 1; i < array.size(); i++) {
+                this.walk(array.get(i), style);
+            }
+        } else if (component.isJsonObject()) {
+            JsonObject object = component.getAsJsonObject();
+            int style = style(object, parentStyle);
+            if (object.has("text")) {
+                this.text(object.get("text").getAsString(), style);
+            } else if (object.has("translate")) {
+                this.translate(object.get("translate").getAsString(), object.get("with"), style);
+            } else if (object.has("selector")) {
+                this.text(object.get("selector").getAsString(), style);
+            } else if (object.has("keybind")) {
+                this.text(object.get("keybind").getAsString(), style);
+            } else if (object.has("score")) {
+                JsonElement value = object.getAsJsonObject("score").get("value");
+                if (value != null) {
+                    this.text(value.getAsString(), style);
+                }
+            }
+            JsonElement extra = object.get("extra");
+            if (extra != null && extra.isJsonArray()) {
+                for (JsonElement child : extra.getAsJsonArray()) {
+                    this.walk(child, style);
+                }
+            }
+        }
+    }
+
+    /**
+     * Substitutes the arguments into a translation. There are no translations available, the key is used as the
+     * format instead, which is what plugins that send raw formats as keys expect. If the key has no placeholders the
+     * arguments are appended after it.
+     */
+    private void translate(@NotNull String key, @Nullable JsonElement with, int style) {
+        JsonArray args = with != null && with.isJsonArray() ? with.getAsJsonArray() : new JsonArray();
+        int next = 0;
+        int start = 0;
+        boolean placeholders = false;
+        for (int i = 0; i < key.length() - 1; i++) {
+            if (key.charAt(i) != '%') {
+                continue;
+            }
+            int end = i + 1;
+            int index = -1;
+            while (end < key.length() && Character.isDigit(key.charAt(end))) {
+                end++;
+            }
+            if (end > i + 1 && end + 1 < key.length() && key.charAt(end) == '$' && key.charAt(end + 1) == 's') {
+                index = Integer.parseInt(key.substring(i + 1, end)) - 1;
+                end += 2;
+            } else if (key.charAt(i + 1) == 's') {
+                index = next++;
+                end = i + 2;
+            } else if (key.charAt(i + 1) == '%') {
+                this.text(key.substring(start, i + 1), style);
+                start = i + 2;
+                i++;
+                continue;
+            } else {
+                continue;
+            }
+            placeholders = true;
+            this.text(key.substring(start, i), style);
+            if (index >= 0 && index < args.size()) {
+                this.walk(args.get(index), style);
+            }
+            start = end;
+            i = end - 1;
+        }
+        this.text(key.substring(start), style);
+        if (!placeholders) {
+            for (JsonElement arg : args) {
+                this.text(" ", style);
+                this.walk(arg, style);
+            }
+        }
+    }
+
+    private static int style(@NotNull JsonObject object, int parent) {
+        int style = parent;
+        style = flag(object, "bold", FLAG_BOLD, style);
+        style = flag(object, "italic", FLAG_ITALIC, style);
+        style = flag(object, "underlined", FLAG_UNDERLINE, style);
+        style = flag(object, "strikethrough", FLAG_STRIKETHROUGH, style);
+        JsonElement color = object.get("color");
+        if (color != null && color.isJsonPrimitive()) {
+            int irc = color(color.getAsString());
+            style = (style & FLAGS) | ((irc + 1) << COLOR_SHIFT);
+        }
+        return style;
+    }
+
+    private static int flag(@NotNull JsonObject object, @NotNull String name, int flag, int style) {
+        JsonElement value = object.get(name);
+        if (value == null || !value.isJsonPrimitive()) {
+            return style;
+        }
+        return value.getAsBoolean() ? style | flag : style & ~flag;
+    }
+
+    /**
+     * Gets the IRC color of a Minecraft color, -1 for reset or unknown colors.
+     */
+    private static int color(@NotNull String name) {
+        if (name.length() == 7 && name.charAt(0) == '#') {
+            try {
+                return closest(Integer.parseInt(name.substring(1), 16));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return COLORS.getOrDefault(name, -1);
+    }
+
+    private static int closest(int rgb) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < IRC_RGB.length; i++) {
+            long dr = ((rgb >> 16) & 0xFF) - ((IRC_RGB[i] >> 16) & 0xFF);
+            long dg = ((rgb >> 8) & 0xFF) - ((IRC_RGB[i] >> 8) & 0xFF);
+            long db = (rgb & 0xFF) - (IRC_RGB[i] & 0xFF);
+            long distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void text(@NotNull String text, int style) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (style != this.current) {
+            int color = style >>> COLOR_SHIFT;
+            int currentColor = this.current >>> COLOR_SHIFT;
+            if ((this.current & ~style & FLAGS) != 0 || (currentColor != 0 && color == 0)) {
+                // Reset and apply the remaining formatting again, rather than toggling each removed style off
+                this.out.append(RESET);
+                this.current = 0;
+                currentColor = 0;
+            }
+            int added = style & ~this.current & FLAGS;
+            if ((added & FLAG_BOLD) != 0) {
+                this.out.append(BOLD);
+            }
+            if ((added & FLAG_ITALIC) != 0) {
+                this.out.append(ITALIC);
+            }
+            if ((added & FLAG_UNDERLINE) != 0) {
+                this.out.append(UNDERLINE);
+            }
+            if ((added & FLAG_STRIKETHROUGH) != 0) {
+                this.out.append(STRIKETHROUGH);
+            }
+            if (color != currentColor) {
+                // Always two digits, so text starting with a digit is not taken as part of the color
+                int irc = color - 1;
+                this.out.append(COLOR).append((char) ('0' + irc / 10)).append((char) ('0' + irc % 10));
+            }
+            this.current = style;
+        }
+        this.out.append(text);
+    }
+}
@@ -24,17 +24,32 @@
  */
 package org.kitteh.craftirc.messaging.formatting;
 
+import org.jetbrains.annotations.NotNull;
 import org.kitteh.craftirc.messaging.Minestom2IRC;
 
 /**
  * The IRC Chat Formatter is a nice formatter that formats messages sent to the IRC.
+ * The formats are compiled into {@link Template}s when the formatter is created.
  * @since 5.0.0
  */
 public class IRCChatFormatter implements Minestom2IRC.Processor {
 
-    private final String chat;
-    private final String join;
-    private final String quit;
+    private final Template<Minestom2IRC.Message> chat;
+    private final Template<Minestom2IRC.Message> join;
+    private final Template<Minestom2IRC.Message> quit;
+
+    /**
+     * Creates the placeholders every format can use: ${user}, ${displayname} which is the name of the player as well,
+     * and ${msg}.
+     * @return A new vocabulary that can be extended with further placeholders and conditions
+     * @since 5.0.2
+     */
+    public static @NotNull Template.Vocabulary<Minestom2IRC.Message> vocabulary() {
+        return new Template.Vocabulary<Minestom2IRC.Message>()
+                .placeholder("user", Minestom2IRC.Message::getUser)
+                .placeholder("displayname", Minestom2IRC.Message::getUser)
+                .placeholder("msg", Minestom2IRC.Message::getMessage);
+    }
 
     /**
      * Creates a new IRCChatFormatter with the given messages.
@@ -44,25 +59,40 @@ public class IRCChatFormatter implements Minestom2IRC.Processor {
      * @since 5.0.0
      */
     public IRCChatFormatter(String usingFormatChat, String usingFormatJoin, String usingFormatDisconnect) {
-        chat = usingFormatChat;
-        join = usingFormatJoin;
-        quit = usingFormatDisconnect;
+        this(usingFormatChat, usingFormatJoin, usingFormatDisconnect, vocabulary());
+    }
+
+    /**
+     * Creates a new IRCChatFormatter with the given messages, which may use the placeholders and conditions of
+     * the given vocabulary, see {@link Template}.
+     * @param usingFormatChat The format of the chat messages
+     * @param usingFormatJoin The format of the join messages
+     * @param usingFormatDisconnect The format of the disconnect messages
+     * @param vocabulary The placeholders and conditions, usually an extended {@link #vocabulary()}
+     * @throws IllegalArgumentException If a format is invalid
+     * @since 5.0.2
+     */
+    public IRCChatFormatter(@NotNull String usingFormatChat, @NotNull String usingFormatJoin,
+            @NotNull String usingFormatDisconnect, @NotNull Template.Vocabulary<Minestom2IRC.Message> vocabulary) {
+        chat = Template.compile(usingFormatChat, vocabulary);
+        join = Template.compile(usingFormatJoin, vocabulary);
+        quit = Template.compile(usingFormatDisconnect, vocabulary);
     }
 
     @Override
     public void process(Minestom2IRC.Message msg) {
         switch (msg.getType()) {
         case CHAT:
-            msg.setFormattedMessage(chat.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getMessage()));
+            msg.setFormattedMessage(chat.render(msg));
             break;
         case JOIN:
         case BACK:
-            msg.setFormattedMessage(join.replaceAll("\\$\\{user}", msg.getUser()));
+            msg.setFormattedMessage(join.render(msg));
             break;
         case KICK:
         case QUIT:
         case AWAY:
-            msg.setFormattedMessage(quit.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getMessage()));
+            msg.setFormattedMessage(quit.render(msg));
             break;
         default:
             throw new IllegalArgumentException();
@@ -24,24 +24,47 @@
  */
 package org.kitteh.craftirc.messaging.formatting;
 
+import java.util.List;
+
 import org.jetbrains.annotations.NotNull;
 import org.kitteh.craftirc.messaging.IRC2Minestom;
+import org.kitteh.craftirc.messaging.processing.IRCColor;
+import org.kitteh.craftirc.messaging.processing.LinkDetector;
 
+import net.minestom.server.chat.ChatClickEvent;
+import net.minestom.server.chat.ChatHoverEvent;
 import net.minestom.server.chat.ColoredText;
+import net.minestom.server.chat.JsonMessage;
+import net.minestom.server.chat.RichMessage;
 
 /**
  * The MinestomChatFormatter takes care of message translation of messages sent by IRC
- * that should be sent to the Minestom server
+ * that should be sent to the Minestom server.
+ * The formats are compiled into {@link Template}s when the formatter is created.
  * @since 5.0.0
  */
 public class MinestomChatFormatter implements IRC2Minestom.Processor {
 
-    private final String chat;
-    private final String join;
-    private final String quit;
-    private final String kick;
-    private final String away;
-    private final String back;
+    private final Template<IRC2Minestom.Message> chat;
+    private final Template<IRC2Minestom.Message> join;
+    private final Template<IRC2Minestom.Message> quit;
+    private final Template<IRC2Minestom.Message> kick;
+    private final Template<IRC2Minestom.Message> away;
+    private final Template<IRC2Minestom.Message> back;
+    private final Template<IRC2Minestom.Message> nick;
+
+    /**
+     * Creates the placeholders every format can use: ${user}, ${displayname} which is the nick as well,
+     * and ${msg} which is the new nick for nick changes.
+     * @return A new vocabulary that can be extended with further placeholders and conditions
+     * @since 5.0.2
+     */
+    public static @NotNull Template.Vocabulary<IRC2Minestom.Message> vocabulary() {
+        return new Template.Vocabulary<IRC2Minestom.Message>()
+                .placeholder("user", IRC2Minestom.Message::getUser)
+                .placeholder("displayname", IRC2Minestom.Message::getUser)
+                .placeholder("msg", IRC2Minestom.Message::getOriginal);
+    }
 
     /**
      * Creates a new MinestomChatFormatter with the given messages.
@@ -51,17 +74,61 @@ public class MinestomChatFormatter implements IRC2Minestom.Processor {
      * @param usingFormatKick The format of the messages where a user was kicked.
      * @param usingFormatAway The format of the message when a user is marked to be away
      * @param usingFormatBack The format of the message when a user is no longer marked to be away
+     * @param usingFormatNick The format of the message when a user changed it's nick, the new nick is passed as ${msg}
+     * @since 5.0.2
+     */
+    public MinestomChatFormatter(@NotNull String usingFormatChat, @NotNull String usingFormatJoin, 
+            @NotNull String usingFormatPart, @NotNull String usingFormatKick, @NotNull String usingFormatAway,
+            @NotNull String usingFormatBack, @NotNull String usingFormatNick) {
+        this(usingFormatChat, usingFormatJoin, usingFormatPart, usingFormatKick, usingFormatAway, usingFormatBack,
+                usingFormatNick, vocabulary());
+    }
+
+    /**
+     * Creates a new MinestomChatFormatter with the given messages, which may use the placeholders and conditions of
+     * the given vocabulary, see {@link Template}.
+     * @param usingFormatChat The format of the chat messages
+     * @param usingFormatJoin The format of the join messages
+     * @param usingFormatPart The format of the parting messages
+     * @param usingFormatKick The format of the messages where a user was kicked.
+     * @param usingFormatAway The format of the message when a user is marked to be away
+     * @param usingFormatBack The format of the message when a user is no longer marked to be away
+     * @param usingFormatNick The format of the message when a user changed it's nick, the new nick is passed as ${msg}
+     * @param vocabulary The placeholders and conditions, usually an extended {@link #vocabulary()}
+     * @throws IllegalArgumentException If a format is invalid
+     * @since 5.0.2
+     */
+    public MinestomChatFormatter(@NotNull String usingFormatChat, @NotNull String usingFormatJoin, 
+            @NotNull String usingFormatPart, @NotNull String usingFormatKick, @NotNull String usingFormatAway,
+            @NotNull String usingFormatBack, @NotNull String usingFormatNick,
+            @NotNull Template.Vocabulary<IRC2Minestom.Message> vocabulary) {
+        chat = Template.compile(usingFormatChat, vocabulary);
+        join = Template.compile(usingFormatJoin, vocabulary);
+        quit = Template.compile(usingFormatPart, vocabulary);
+        kick = Template.compile(usingFormatKick, vocabulary);
+        away = Template.compile(usingFormatAway, vocabulary);
+        back = Template.compile(usingFormatBack, vocabulary);
+        nick = Template.compile(usingFormatNick, vocabulary);
+    }
+
+    /**
+     * @deprecated Replaced with {@link #MinestomChatFormatter(String, String, String, String, String, String, String)}
+     *
+     * Creates a new MinestomChatFormatter with the given messages. Nick changes are formatted with a default format.
+     * @param usingFormatChat The format of the chat messages
+     * @param usingFormatJoin The format of the join messages
+     * @param usingFormatPart The format of the parting messages
+     * @param usingFormatKick The format of the messages where a user was kicked.
+     * @param usingFormatAway The format of the message when a user is marked to be away
+     * @param usingFormatBack The format of the message when a user is no longer marked to be away
      * @since 5.0.1
      */
+    @Deprecated(forRemoval = true, since = "5.0.2")
     public MinestomChatFormatter(@NotNull String usingFormatChat, @NotNull String usingFormatJoin, 
             @NotNull String usingFormatPart, @NotNull String usingFormatKick, @NotNull String usingFormatAway,
             @NotNull String usingFormatBack) {
-        chat = usingFormatChat;
-        join = usingFormatJoin;
-        quit = usingFormatPart;
-        kick = usingFormatKick;
-        away = usingFormatAway;
-        back = usingFormatBack;
+        this(usingFormatChat, usingFormatJoin, usingFormatPart, usingFormatKick, usingFormatAway, usingFormatBack,
+                "${user} is now known as ${msg}.");
     }
 
     /**
@@ -82,27 +149,83 @@ public class MinestomChatFormatter implements IRC2Minestom.Processor {
         String rawMessage;
         switch (msg.getType()) {
         case CHAT:
-            rawMessage = chat.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getOriginal());
+            rawMessage = chat.render(msg);
             break;
         case JOIN:
-            rawMessage = join.replaceAll("\\$\\{user}", msg.getUser());
+            rawMessage = join.render(msg);
             break;
         case QUIT:
-            rawMessage = quit.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getOriginal());
+            rawMessage = quit.render(msg);
             break;
         case KICK:
-            rawMessage = kick.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getOriginal());
+            rawMessage = kick.render(msg);
             break;
         case AWAY:
-            rawMessage = away.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getOriginal());
+            rawMessage = away.render(msg);
             break;
         case BACK:
-            rawMessage = back.replaceAll("\\$\\{user}", msg.getUser()).replaceAll("\\$\\{msg}", msg.getOriginal());
+            rawMessage = back.render(msg);
+            break;
+        case NICK:
+            rawMessage = nick.render(msg);
             break;
         default:
             throw new IllegalArgumentException();
         }
-        msg.setFormattedMessage(ColoredText.of(rawMessage));
+        if (msg.getLinks().isEmpty()) {
+            msg.setFormattedMessage(ColoredText.of(rawMessage));
+        } else {
+            msg.setFormattedMessage(withLinks(rawMessage, msg.getLinks()));
+        }
+    }
+
+    /**
+     * Splits a formatted message into text and link segments and makes the links clickable.
+     * Each segment continues with the color that was last set in the text before it.
+     */
+    @NotNull
+    private static JsonMessage withLinks(@NotNull String rawMessage, @NotNull List<String> links) {
+        RichMessage rich = null;
+        String color = "";
+        int start = 0;
+        for (String link : links) {
+            int index = rawMessage.indexOf(link, start);
+            if (index < 0) {
+                // Mangled by a later processor, leave it as plain text
+                continue;
+            }
+            String text = rawMessage.substring(start, index);
+            ColoredText before = ColoredText.of(color + text);
+            rich = rich == null ? RichMessage.of(before) : rich.append(before);
+            color = lastColor(text, color);
+            rich.append(ColoredText.of(color + link))
+                .setClickEvent(ChatClickEvent.openUrl(LinkDetector.toUrl(link)))
+                .setHoverEvent(ChatHoverEvent.showText("Click to open " + LinkDetector.toUrl(link)));
+            start = index + link.length();
+        }
+        if (rich == null) {
+            return ColoredText.of(rawMessage);
+        }
+        return rich.append(ColoredText.of(color + rawMessage.substring(start)));
+    }
+
+    /**
+     * Finds the last color set in a text, either as {#name} or as a legacy color code.
+     */
+    @NotNull
+    private static String lastColor(@NotNull String text, @NotNull String previous) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '}') {
+                int open = text.lastIndexOf("{#", i);
+                if (open >= 0) {
+                    return text.substring(open, i + 1);
+                }
+            } else if (c == IRCColor.MC_COLOR_ESCAPE_SEQUENCE && i + 1 < text.length()) {
+                return text.substring(i, i + 2);
+            }
+        }
+        return previous;
     }
 
 }
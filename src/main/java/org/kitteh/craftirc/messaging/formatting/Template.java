@@ -0,0 +1,293 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.formatting;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A message format that is compiled once when the configuration is loaded. The format is parsed into a tree of
+ * nodes which resolve their part of the message directly, so rendering a message only walks the tree.
+ * <p>
+ * Formats consist of text and the following elements:
+ * <ul>
+ * <li><code>${name}</code> is replaced with the value of the placeholder, formats with unknown placeholders keep them as they are</li>
+ * <li><code>${time}</code> is replaced with the current time, <code>${time:HH:mm:ss}</code> uses the given pattern</li>
+ * <li><code>${if name}...${end}</code> is only shown if the condition is true, <code>${if !name}</code> if it is false.
+ * <code>${if name}...${else}...${end}</code> shows the second part otherwise. Placeholders can be used as conditions
+ * as well, which are true if their value is not empty.</li>
+ * </ul>
+ * Which placeholders and conditions exist is decided by the {@link Vocabulary} the format is compiled with.
+ * @param <C> The type of the message the template renders
+ * @since 5.0.2
+ */
+public final class Template<C> {
+
+    /**
+     * The placeholders and conditions a template may use.
+     * @param <C> The type of the message the template renders
+     * @since 5.0.2
+     */
+    public static final class Vocabulary<C> {
+        private final Map<String, Function<? super C, String>> placeholders = new HashMap<>();
+        private final Map<String, Predicate<? super C>> conditions = new HashMap<>();
+
+        /**
+         * Adds a placeholder, replacing any placeholder of the same name.
+         * @param name The name of the placeholder, as in <code>${name}</code>
+         * @param resolver Obtains the value of the placeholder for a message, null is shown as nothing
+         * @return This vocabulary
+         */
+        public @NotNull Vocabulary<C> placeholder(@NotNull String name, @NotNull Function<? super C, String> resolver) {
+            placeholders.put(name, resolver);
+            return this;
+        }
+
+        /**
+         * Adds a condition, replacing any condition of the same name.
+         * @param name The name of the condition, as in <code>${if name}</code>
+         * @param condition Tests a message
+         * @return This vocabulary
+         */
+        public @NotNull Vocabulary<C> condition(@NotNull String name, @NotNull Predicate<? super C> condition) {
+            conditions.put(name, condition);
+            return this;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Node<C> {
+        void render(@NotNull C message, @NotNull StringBuilder out);
+    }
+
+    private static final class Literal<C> implements Node<C> {
+        private final String text;
+
+        private Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(@NotNull C message, @NotNull StringBuilder out) {
+            out.append(text);
+        }
+    }
+
+    private static final class Placeholder<C> implements Node<C> {
+        private final Function<? super C, String> resolver;
+
+        private Placeholder(Function<? super C, String> resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public void render(@NotNull C message, @NotNull StringBuilder out) {
+            String value = resolver.apply(message);
+            if (value != null) {
+                out.append(value);
+            }
+        }
+    }
+
+    private static final class Conditional<C> implements Node<C> {
+        private final Predicate<? super C> condition;
+        private final Node<C>[] then;
+        private final Node<C>[] otherwise;
+
+        private Conditional(Predicate<? super C> condition, Node<C>[] then, Node<C>[] otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public void render(@NotNull C message, @NotNull StringBuilder out) {
+            for (Node<C> node : condition.test(message) ? then : otherwise) {
+                node.render(message, out);
+            }
+        }
+    }
+
+    /**
+     * A conditional that is still being parsed.
+     */
+    private static final class Block<C> {
+        private final Predicate<? super C> condition;
+        private final String source;
+        private final List<Node<C>> enclosing;
+        private List<Node<C>> then;
+
+        private Block(Predicate<? super C> condition, String source, List<Node<C>> enclosing) {
+            this.condition = condition;
+            this.source = source;
+            this.enclosing = enclosing;
+        }
+    }
+
+    private final Node<C>[] nodes;
+    private final @Nullable String constant;
+    private final int sizeHint;
+
+    private Template(Node<C>[] nodes, @Nullable String constant, int sizeHint) {
+        this.nodes = nodes;
+        this.constant = constant;
+        this.sizeHint = sizeHint;
+    }
+
+    /**
+     * Compiles a format.
+     * @param <C> The type of the message the template renders
+     * @param format The format
+     * @param vocabulary The placeholders and conditions the format may use
+     * @return The compiled template
+     * @throws IllegalArgumentException If the conditions of the format are not balanced, or a time pattern is invalid
+     * @since 5.0.2
+     */
+    public static <C> @NotNull Template<C> compile(@NotNull String format, @NotNull Vocabulary<C> vocabulary) {
+        List<Block<C>> open = new ArrayList<>();
+        List<Node<C>> current = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int start = 0;
+        while (start < format.length()) {
+            int begin = format.indexOf("${", start);
+            int end = begin < 0 ? -1 : format.indexOf('}', begin + 2);
+            if (end < 0) {
+                text.append(format, start, format.length());
+                break;
+            }
+            text.append(format, start, begin);
+            start = end + 1;
+            String element = format.substring(begin + 2, end).trim();
+            String source = format.substring(begin, end + 1);
+            if (element.startsWith("if ")) {
+                flush(text, current);
+                String name = element.substring(3).trim();
+                boolean negated = name.startsWith("!");
+                Predicate<? super C> condition = condition(negated ? name.substring(1).trim() : name, vocabulary, source);
+                open.add(new Block<>(negated ? message -> !condition.test(message) : condition, source, current));
+                current = new ArrayList<>();
+            } else if (element.equals("else")) {
+                Block<C> block = open.isEmpty() ? null : open.get(open.size() - 1);
+                if (block == null || block.then != null) {
+                    throw new IllegalArgumentException("Unexpected ${else} in format \"" + format + "\"");
+                }
+                flush(text, current);
+                block.then = current;
+                current = new ArrayList<>();
+            } else if (element.equals("end")) {
+                if (open.isEmpty()) {
+                    throw new IllegalArgumentException("Unexpected ${end} in format \"" + format + "\"");
+                }
+                flush(text, current);
+                Block<C> block = open.remove(open.size() - 1);
+                List<Node<C>> then = block.then == null ? current : block.then;
+                List<Node<C>> otherwise = block.then == null ? List.of() : current;
+                block.enclosing.add(new Conditional<>(block.condition, toArray(then), toArray(otherwise)));
+                current = block.enclosing;
+            } else if (element.equals("time") || element.startsWith("time:")) {
+                flush(text, current);
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern(element.length() > 5 ? element.substring(5) : "HH:mm")
+                        .withZone(ZoneId.systemDefault());
+                current.add(new Placeholder<>(message -> formatter.format(Instant.now())));
+            } else {
+                Function<? super C, String> resolver = vocabulary.placeholders.get(element);
+                if (resolver == null) {
+                    text.append(source);
+                } else {
+                    flush(text, current);
+                    current.add(new Placeholder<>(resolver));
+                }
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalArgumentException(open.get(open.size() - 1).source + " without ${end} in format \"" + format + "\"");
+        }
+        flush(text, current);
+        if (current.isEmpty()) {
+            return new Template<>(toArray(current), "", 0);
+        }
+        if (current.size() == 1 && current.get(0) instanceof Literal) {
+            String constant = ((Literal<C>) current.get(0)).text;
+            return new Template<>(toArray(current), constant, constant.length());
+        }
+        return new Template<>(toArray(current), null, format.length() + 64);
+    }
+
+    @NotNull
+    private static <C> Predicate<? super C> condition(@NotNull String name, @NotNull Vocabulary<C> vocabulary, @NotNull String source) {
+        Predicate<? super C> condition = vocabulary.conditions.get(name);
+        if (condition != null) {
+            return condition;
+        }
+        Function<? super C, String> placeholder = vocabulary.placeholders.get(name);
+        if (placeholder != null) {
+            return message -> {
+                String value = placeholder.apply(message);
+                return value != null && !value.isEmpty();
+            };
+        }
+        throw new IllegalArgumentException("Unknown condition " + source);
+    }
+
+    private static <C> void flush(@NotNull StringBuilder text, @NotNull List<Node<C>> nodes) {
+        if (text.length() != 0) {
+            nodes.add(new Literal<>(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static <C> Node<C>[] toArray(@NotNull List<Node<C>> nodes) {
+        return nodes.toArray(new Node[0]);
+    }
+
+    /**
+     * Renders a message.
+     * @param message The message
+     * @return The formatted message
+     * @since 5.0.2
+     */
+    public @NotNull String render(@NotNull C message) {
+        if (constant != null) {
+            return constant;
+        }
+        StringBuilder out = new StringBuilder(sizeHint);
+        for (Node<C> node : nodes) {
+            node.render(message, out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.processing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the links within messages so they can be made clickable once the message is formatted.
+ * The message is scanned once for words starting with http://, https:// or www. and a link runs until the next
+ * whitespace. Punctuation at the end of a link is left out, as are closing brackets that have no opening bracket
+ * within the link, so "(see https://example.com)." yields "https://example.com".
+ * @since 5.0.2
+ */
+public final class LinkDetector implements Preprocessor {
+
+    @Override
+    public void preProcess(PreprocessedMessage msg) {
+        String message = msg.getMessage();
+        List<String> links = null;
+        int length = message.length();
+        for (int i = 0; i < length; i++) {
+            if (i > 0 && !isBoundary(message.charAt(i - 1))) {
+                continue;
+            }
+            int prefix = prefixLength(message, i);
+            if (prefix == 0) {
+                continue;
+            }
+            int end = i + prefix;
+            while (end < length && !Character.isWhitespace(message.charAt(end))) {
+                end++;
+            }
+            end = trim(message, i + prefix, end);
+            if (end > i + prefix) {
+                if (links == null) {
+                    links = new ArrayList<>(2);
+                }
+                links.add(message.substring(i, end));
+            }
+            i = end - 1;
+        }
+        if (links != null) {
+            msg.setLinks(links);
+        }
+    }
+
+    private static boolean isBoundary(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == '<' || c == '[' || c == '"' || c == '\'' || c == '}';
+    }
+
+    private static int prefixLength(@NotNull String message, int start) {
+        char c = message.charAt(start);
+        if (c == 'h' || c == 'H') {
+            if (message.regionMatches(true, start, "https://", 0, 8)) {
+                return 8;
+            }
+            if (message.regionMatches(true, start, "http://", 0, 7)) {
+                return 7;
+            }
+        } else if ((c == 'w' || c == 'W') && message.regionMatches(true, start, "www.", 0, 4)) {
+            return 4;
+        }
+        return 0;
+    }
+
+    /**
+     * Removes trailing punctuation and unbalanced closing brackets from a link.
+     */
+    private static int trim(@NotNull String message, int start, int end) {
+        int parentheses = 0;
+        int brackets = 0;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (c == '(') {
+                parentheses++;
+            } else if (c == ')') {
+                parentheses--;
+            } else if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            }
+        }
+        while (end > start) {
+            char last = message.charAt(end - 1);
+            if (last == '.' || last == ',' || last == '!' || last == '?' || last == ';' || last == ':'
+                    || last == '"' || last == '\'' || last == '>') {
+                end--;
+            } else if (last == ')' && parentheses < 0) {
+                parentheses++;
+                end--;
+            } else if (last == ']' && brackets < 0) {
+                brackets++;
+                end--;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Prepends the URL scheme to links that were found without one.
+     *
+     * @param link the link as found in the message
+     * @return the URL the link should open
+     */
+    @NotNull
+    public static String toUrl(@NotNull String link) {
+        return link.regionMatches(true, 0, "www.", 0, 4) ? "https://" + link : link;
+    }
+}
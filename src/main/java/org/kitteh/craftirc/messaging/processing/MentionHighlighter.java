@@ -0,0 +1,212 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.processing;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds online players that are mentioned within a message and creates a highlighted copy of the message
+ * for them. The names of the online players are kept within a trie that is updated as players log in or
+ * disconnect, so a message is matched against all names within a single pass over the message.
+ * As minecraft usernames are made up of word characters only, names are only matched as whole words which
+ * means that the matcher never needs to backtrack.
+ * @since 5.0.2
+ */
+public final class MentionHighlighter implements Preprocessor {
+
+    private static final int ALPHABET_SIZE = 37; // a-z, 0-9 and the underscore
+
+    private static final class Node {
+        private final Node[] children = new Node[ALPHABET_SIZE];
+        private String name; // the username that ends at this node, null if none does
+        private int weight; // the amount of names that pass through this node
+    }
+
+    private final Node root = new Node();
+    private final String highlightPrefix;
+    private final String highlightSuffix;
+
+    /**
+     * Creates a new MentionHighlighter that highlights mentions with the given format.
+     * @param format The format of a highlighted name, the name itself is inserted in place of "${user}".
+     * @since 5.0.2
+     */
+    public MentionHighlighter(@NotNull String format) {
+        int index = format.indexOf("${user}");
+        if (index == -1) {
+            highlightPrefix = format;
+            highlightSuffix = "";
+        } else {
+            highlightPrefix = format.substring(0, index);
+            highlightSuffix = format.substring(index + 7);
+        }
+    }
+
+    /**
+     * Maps a character to it's position within the children of a node.
+     * @param c The character to map
+     * @return The index of the character or -1 if the character cannot be part of a username
+     */
+    private static int indexOf(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        } else if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 26;
+        } else if (c == '_') {
+            return 36;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a player name that can be mentioned. Usually called when the player logs in.
+     * @param name The username of the player
+     * @since 5.0.2
+     */
+    public synchronized void addName(@NotNull String name) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            int index = indexOf(name.charAt(i));
+            if (index == -1) {
+                return; // Not a valid username, it could never be matched anyway
+            }
+            if (node.children[index] == null) {
+                node.children[index] = new Node();
+            }
+            node = node.children[index];
+        }
+        if (node.name != null) {
+            return;
+        }
+        node.name = name;
+        // Only count the name once it is known to be new
+        node = root;
+        node.weight++;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.children[indexOf(name.charAt(i))];
+            node.weight++;
+        }
+    }
+
+    /**
+     * Removes a player name so it will no longer be matched. Usually called when the player disconnects.
+     * @param name The username of the player
+     * @since 5.0.2
+     */
+    public synchronized void removeName(@NotNull String name) {
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            int index = indexOf(name.charAt(i));
+            node = index == -1 ? null : node.children[index];
+        }
+        if (node == null || node.name == null) {
+            return;
+        }
+        node.name = null;
+        node = root;
+        node.weight--;
+        for (int i = 0; i < name.length(); i++) {
+            int index = indexOf(name.charAt(i));
+            Node child = node.children[index];
+            if (--child.weight == 0) {
+                // Nothing else passes through this branch, so it can be dropped entirely
+                node.children[index] = null;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    @Override
+    public void preProcess(PreprocessedMessage msg) {
+        final String text = msg.getMessage();
+        final int length = text.length();
+        final List<String> links = msg.getLinks();
+        int nextLink = 0;
+        int linkStart = links.isEmpty() ? -1 : text.indexOf(links.get(0));
+        Set<String> mentioned = null;
+        StringBuilder highlighted = null;
+        int copied = 0;
+        synchronized (this) {
+            if (root.weight == 0) {
+                return;
+            }
+            int i = 0;
+            while (i < length) {
+                if (linkStart != -1 && i >= linkStart) {
+                    // A highlight within a link would break the link, see LinkDetector
+                    i = Math.max(i, linkStart + links.get(nextLink).length());
+                    nextLink++;
+                    linkStart = nextLink < links.size() ? text.indexOf(links.get(nextLink), i) : -1;
+                    continue;
+                }
+                char c = text.charAt(i);
+                if (c == IRCColor.MC_COLOR_ESCAPE_SEQUENCE) {
+                    i += 2; // Skip the color code so it isn't treated as the start of a word
+                    continue;
+                }
+                if (c == '{' && i + 1 < length && text.charAt(i + 1) == '#') {
+                    int end = text.indexOf('}', i + 2);
+                    if (end != -1) {
+                        i = end + 1; // Skip Minestom color codes like {#red} as well
+                        continue;
+                    }
+                }
+                if (indexOf(c) == -1) {
+                    i++;
+                    continue;
+                }
+                final int start = i;
+                Node node = root;
+                do {
+                    if (node != null) {
+                        node = node.children[indexOf(text.charAt(i))];
+                    }
+                    i++;
+                } while (i < length && indexOf(text.charAt(i)) != -1);
+                if (node != null && node.name != null) {
+                    if (mentioned == null) {
+                        mentioned = new HashSet<>();
+                        highlighted = new StringBuilder(length + 32);
+                    }
+                    mentioned.add(node.name);
+                    highlighted.append(text, copied, start).append(highlightPrefix);
+                    highlighted.append(text, start, i).append(highlightSuffix);
+                    copied = i;
+                }
+            }
+        }
+        if (mentioned != null) {
+            highlighted.append(text, copied, length);
+            msg.setMentions(mentioned, highlighted.toString());
+        }
+    }
+}
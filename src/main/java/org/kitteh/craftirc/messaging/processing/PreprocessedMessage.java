@@ -24,11 +24,19 @@
  */
 package org.kitteh.craftirc.messaging.processing;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 public class PreprocessedMessage {
 
     private final String original;
     private final String user;
     private String newMessage;
+    private Set<String> mentions = Collections.emptySet();
+    private String highlightedMessage;
+    private boolean cancelled;
+    private List<String> links = Collections.emptyList();
 
     public PreprocessedMessage(String message, String sender) {
         original = message;
@@ -51,4 +59,70 @@ public class PreprocessedMessage {
     public String getSender() {
         return user;
     }
+
+    /**
+     * Obtains the names of the online players that are mentioned within the message.
+     * @return The mentioned players, empty if no player was mentioned
+     * @since 5.0.2
+     */
+    public Set<String> getMentions() {
+        return mentions;
+    }
+
+    /**
+     * Obtains the copy of the message that should be shown to the mentioned players.
+     * @return The highlighted message or null if no player was mentioned
+     * @since 5.0.2
+     */
+    public String getHighlightedMessage() {
+        return highlightedMessage;
+    }
+
+    /**
+     * Sets the players that are mentioned within the message as well as the copy of the message
+     * they should see instead of the normal message.
+     * @param players The usernames of the mentioned players
+     * @param highlighted The highlighted copy of the message
+     * @since 5.0.2
+     */
+    public void setMentions(Set<String> players, String highlighted) {
+        mentions = players;
+        highlightedMessage = highlighted;
+    }
+
+    /**
+     * Checks whether the message was cancelled by a preprocessor, in which case it will not be sent.
+     * @return True if the message will not be sent
+     * @since 5.0.2
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sets whether the message should be cancelled. Cancelled messages are dropped once all preprocessors ran.
+     * @param cancel True to prevent the message from being sent
+     * @since 5.0.2
+     */
+    public void setCancelled(boolean cancel) {
+        cancelled = cancel;
+    }
+
+    /**
+     * Obtains the links within the message, in the order they appear in.
+     * @return The links, empty if the message contains none or links are not detected
+     * @since 5.0.2
+     */
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /**
+     * Sets the links within the message, which the formatter should make clickable.
+     * @param messageLinks The links in the order they appear in within the message
+     * @since 5.0.2
+     */
+    public void setLinks(List<String> messageLinks) {
+        links = messageLinks;
+    }
 }
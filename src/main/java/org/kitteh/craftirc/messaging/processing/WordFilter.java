@@ -0,0 +1,294 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.processing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Censors or blocks messages that contain any of the configured words or phrases.
+ * The word list is compiled into a single Aho-Corasick automaton when the filter is created, so
+ * a message is checked against all words in a single pass over the message without any backtracking.
+ * Both the words and the messages are case-folded and common leetspeak substitutions are undone before
+ * matching, so "B4D" matches the word "bad".
+ * Words only match as whole words, so "ass" does not match within "class". A word that starts or ends with
+ * an asterisk may also match within other words on that side, so "ass*" matches "assume" but not "class".
+ * The filter is immutable after creation and can thus be shared between multiple bridges.
+ * @since 5.0.2
+ */
+public final class WordFilter implements Preprocessor {
+
+    private static final char CENSOR_CHARACTER = '*';
+    private static final char WILDCARD = '*';
+
+    /**
+     * Marks words that may be preceded by other word characters.
+     */
+    private static final int PARTIAL_START = 1;
+
+    /**
+     * Marks words that may be followed by other word characters.
+     */
+    private static final int PARTIAL_END = 2;
+
+    private final boolean block;
+
+    /**
+     * The ASCII characters mapped to their character class, -1 for characters that do not appear in any word.
+     */
+    private final int[] asciiClasses = new int[128];
+
+    /**
+     * Non-ASCII characters that appear within the words in ascending order, their character class
+     * is their index within this array plus {@link #asciiClassCount}.
+     */
+    private final char[] extendedCharacters;
+    private final int asciiClassCount;
+    private final int classCount;
+
+    /**
+     * The transition table of the automaton. The next state of state s for a character of class c
+     * is stored at index s * classCount + c.
+     */
+    private final int[] transitions;
+
+    /**
+     * The length of the word that ends in a given state, 0 if none ends there.
+     */
+    private final int[] matchLengths;
+
+    /**
+     * Whether the word that ends in a given state may match within other words, see {@link #PARTIAL_START}
+     * and {@link #PARTIAL_END}.
+     */
+    private final int[] matchPartial;
+
+    /**
+     * The next state along the failure links a word ends in, 0 if there is none. Words ending there are suffixes
+     * of the word ending in the given state, which need to be checked if the longer word is not a whole word.
+     */
+    private final int[] outputLinks;
+
+    /**
+     * Compiles a new WordFilter.
+     * @param words The words or phrases that should be filtered, a leading or trailing asterisk allows the word
+     *        to match within other words
+     * @param blockMessages True if messages containing the words should be blocked entirely, false if only
+     *        the words themselves should be censored
+     * @since 5.0.2
+     */
+    public WordFilter(@NotNull Collection<String> words, boolean blockMessages) {
+        block = blockMessages;
+        List<String> folded = new ArrayList<>(words.size());
+        List<Integer> partial = new ArrayList<>(words.size());
+        TreeSet<Character> alphabet = new TreeSet<>();
+        for (String word : words) {
+            if (word == null) {
+                continue;
+            }
+            int flags = 0;
+            if (word.length() > 1 && word.charAt(0) == WILDCARD) {
+                word = word.substring(1);
+                flags |= PARTIAL_START;
+            }
+            if (word.length() > 1 && word.charAt(word.length() - 1) == WILDCARD) {
+                word = word.substring(0, word.length() - 1);
+                flags |= PARTIAL_END;
+            }
+            if (word.isEmpty() || word.equals(String.valueOf(WILDCARD))) {
+                continue;
+            }
+            char[] chars = word.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = fold(chars[i]);
+                alphabet.add(chars[i]);
+            }
+            folded.add(new String(chars));
+            partial.add(flags);
+        }
+
+        // Assign character classes so the transition table only needs one column per distinct character
+        Arrays.fill(asciiClasses, -1);
+        int ascii = 0;
+        List<Character> extended = new ArrayList<>();
+        for (char c : alphabet) {
+            if (c < 128) {
+                asciiClasses[c] = ascii++;
+            } else {
+                extended.add(c);
+            }
+        }
+        asciiClassCount = ascii;
+        extendedCharacters = new char[extended.size()];
+        for (int i = 0; i < extendedCharacters.length; i++) {
+            extendedCharacters[i] = extended.get(i);
+        }
+        classCount = Math.max(1, ascii + extendedCharacters.length);
+
+        // Build the trie, -1 marks a missing edge
+        int maxStates = 1;
+        for (String word : folded) {
+            maxStates += word.length();
+        }
+        int[] trie = new int[maxStates * classCount];
+        Arrays.fill(trie, -1);
+        int[] lengths = new int[maxStates];
+        int[] partials = new int[maxStates];
+        int states = 1;
+        for (int w = 0; w < folded.size(); w++) {
+            String word = folded.get(w);
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int index = state * classCount + classOf(word.charAt(i));
+                if (trie[index] == -1) {
+                    trie[index] = states++;
+                }
+                state = trie[index];
+            }
+            lengths[state] = word.length();
+            // The same word listed twice matches in all the places either entry allows
+            partials[state] |= partial.get(w);
+        }
+
+        // Turn the trie into a deterministic automaton by following the failure links breadth-first
+        int[] failure = new int[states];
+        int[] outputs = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            if (trie[c] == -1) {
+                trie[c] = 0;
+            } else {
+                failure[trie[c]] = 0;
+                queue.add(trie[c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            // The words ending in the failure state or the states it links to also end here
+            outputs[state] = lengths[failure[state]] != 0 ? failure[state] : outputs[failure[state]];
+            for (int c = 0; c < classCount; c++) {
+                int index = state * classCount + c;
+                int fallback = trie[failure[state] * classCount + c];
+                if (trie[index] == -1) {
+                    trie[index] = fallback;
+                } else {
+                    failure[trie[index]] = fallback;
+                    queue.add(trie[index]);
+                }
+            }
+        }
+        transitions = Arrays.copyOf(trie, states * classCount);
+        matchLengths = Arrays.copyOf(lengths, states);
+        matchPartial = Arrays.copyOf(partials, states);
+        outputLinks = outputs;
+    }
+
+    /**
+     * Folds a character to it's canonical form so that differently written characters match.
+     * @param c The character to fold
+     * @return The folded character
+     */
+    private static char fold(char c) {
+        switch (c) {
+        case '0':
+            return 'o';
+        case '1':
+        case '!':
+            return 'i';
+        case '3':
+            return 'e';
+        case '4':
+        case '@':
+            return 'a';
+        case '5':
+        case '$':
+            return 's';
+        case '7':
+            return 't';
+        default:
+            return Character.toLowerCase(c);
+        }
+    }
+
+    /**
+     * Gets whether a character continues a word. The leetspeak symbols are folded to letters for matching, but
+     * they do not continue a word, so "bad!" still contains the word "bad".
+     * @param text The message
+     * @param index The index of the character, may be outside of the message
+     * @return True if the character is a letter or digit
+     */
+    private static boolean isWordCharacter(@NotNull String text, int index) {
+        return index >= 0 && index < text.length() && Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    private int classOf(char folded) {
+        if (folded < 128) {
+            return asciiClasses[folded];
+        }
+        int index = Arrays.binarySearch(extendedCharacters, folded);
+        return index < 0 ? -1 : asciiClassCount + index;
+    }
+
+    @Override
+    public void preProcess(PreprocessedMessage msg) {
+        final String text = msg.getMessage();
+        char[] censored = null;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int characterClass = classOf(fold(text.charAt(i)));
+            state = characterClass == -1 ? 0 : transitions[state * classCount + characterClass];
+            int length = 0;
+            for (int match = matchLengths[state] != 0 ? state : outputLinks[state]; match != 0; match = outputLinks[match]) {
+                int partial = matchPartial[match];
+                if (((partial & PARTIAL_START) != 0 || !isWordCharacter(text, i - matchLengths[match]))
+                        && ((partial & PARTIAL_END) != 0 || !isWordCharacter(text, i + 1))) {
+                    length = matchLengths[match];
+                    break;
+                }
+            }
+            if (length == 0) {
+                continue;
+            }
+            if (block) {
+                msg.setCancelled(true);
+                return;
+            }
+            if (censored == null) {
+                censored = text.toCharArray();
+            }
+            Arrays.fill(censored, i - length + 1, i + 1, CENSOR_CHARACTER);
+        }
+        if (censored != null) {
+            msg.setMessage(new String(censored));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.entity.Player;
+
+/**
+ * Shows messages to the players of the server, this is the sink the bridges to Minestom use by default.
+ * @since 5.0.2
+ */
+public final class BroadcastSink implements MessageSink<Delivery> {
+
+    @Override
+    public void send(@NotNull List<Delivery> batch) {
+        for (Delivery delivery : batch) {
+            Collection<Player> recipients = delivery.getRecipients();
+            if (recipients == null && !delivery.hasMentions()) {
+                MinecraftServer.getConnectionManager().broadcastMessage(delivery.getMessage());
+            } else {
+                for (Player player : recipients == null ? MinecraftServer.getConnectionManager().getOnlinePlayers() : recipients) {
+                    delivery.showTo(player);
+                }
+            }
+        }
+    }
+}
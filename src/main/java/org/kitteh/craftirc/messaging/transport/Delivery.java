@@ -0,0 +1,143 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minestom.server.chat.JsonMessage;
+import net.minestom.server.entity.Player;
+import net.minestom.server.sound.Sound;
+import net.minestom.server.sound.SoundCategory;
+import net.minestom.server.utils.Position;
+
+/**
+ * A formatted message that is shown to players, either to all online players or to some of them.
+ * A message can mention players, these are shown a highlighted copy of the message instead. The sink decides
+ * which of it's players are mentioned while it delivers the message, so only players that actually receive the
+ * message are ever highlighted.
+ * @since 5.0.2
+ */
+public final class Delivery {
+
+    private final @NotNull JsonMessage message;
+    private final @Nullable Collection<Player> recipients;
+    private final @Nullable JsonMessage highlighted;
+    private final @NotNull Set<String> mentions;
+
+    private Delivery(@NotNull JsonMessage message, @Nullable Collection<Player> recipients,
+            @Nullable JsonMessage highlighted, @NotNull Set<String> mentions) {
+        this.message = message;
+        this.recipients = recipients;
+        this.highlighted = highlighted;
+        this.mentions = mentions;
+    }
+
+    /**
+     * Creates a message that is shown to all online players.
+     * @param message The message
+     * @return The delivery
+     */
+    public static @NotNull Delivery toAll(@NotNull JsonMessage message) {
+        return new Delivery(message, null, null, Set.of());
+    }
+
+    /**
+     * Creates a message that is shown to all online players, the mentioned players are shown the highlighted
+     * copy of it.
+     * @param message The message
+     * @param highlighted The message with the mentions highlighted
+     * @param mentions The usernames of the mentioned players
+     * @return The delivery
+     */
+    public static @NotNull Delivery toAll(@NotNull JsonMessage message, @NotNull JsonMessage highlighted, @NotNull Set<String> mentions) {
+        return new Delivery(message, null, highlighted, Set.copyOf(mentions));
+    }
+
+    /**
+     * Creates a message that is only shown to the given players.
+     * @param message The message
+     * @param players The players to show the message to
+     * @return The delivery
+     */
+    public static @NotNull Delivery to(@NotNull JsonMessage message, @NotNull Collection<Player> players) {
+        return new Delivery(message, List.copyOf(players), null, Set.of());
+    }
+
+    public @NotNull JsonMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the players the message is shown to.
+     * @return The players, or null if the message is shown to all online players
+     */
+    public @Nullable Collection<Player> getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Gets whether the message mentions any players.
+     * @return True if some players are shown a highlighted copy
+     */
+    public boolean hasMentions() {
+        return !mentions.isEmpty();
+    }
+
+    /**
+     * Shows the message to a player. A mentioned player is shown the highlighted copy and hears a sound.
+     * @param player The player, sinks only pass players they deliver the message to
+     */
+    public void showTo(@NotNull Player player) {
+        if (highlighted == null || !mentions.contains(player.getUsername())) {
+            player.sendMessage(message);
+            return;
+        }
+        player.sendMessage(highlighted);
+        Position pos = player.getPosition();
+        player.playSound(Sound.ENTITY_EXPERIENCE_ORB_PICKUP, SoundCategory.PLAYERS,
+                (int) pos.getX(), (int) pos.getY(), (int) pos.getZ(), 1.0F, 1.0F);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (recipients == null) {
+            builder.append('*');
+        } else {
+            for (Player player : recipients) {
+                builder.append(builder.length() == 0 ? "" : ",").append(player.getUsername());
+            }
+        }
+        if (!mentions.isEmpty()) {
+            builder.append(" @").append(String.join(",", mentions));
+        }
+        return builder.append(' ').append(message.getJsonObject()).toString();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.metrics.Trace;
+
+/**
+ * A formatted message that is sent to an IRC channel or user.
+ * @since 5.0.2
+ */
+public final class IRCLine {
+
+    private final @NotNull String target;
+    private final @NotNull String message;
+    private final @NotNull MessageType type;
+    private final @Nullable Trace trace;
+
+    /**
+     * Creates a message.
+     * @param target The channel or nick the message is sent to
+     * @param message The formatted message, which may be longer than a single IRC line
+     * @param type The type of the message, which decides it's priority
+     * @param trace The trace of the message, or null if the message is not sampled
+     */
+    public IRCLine(@NotNull String target, @NotNull String message, @NotNull MessageType type, @Nullable Trace trace) {
+        this.target = target;
+        this.message = message;
+        this.type = type;
+        this.trace = trace;
+    }
+
+    public @NotNull String getTarget() {
+        return target;
+    }
+
+    public @NotNull String getMessage() {
+        return message;
+    }
+
+    public @NotNull MessageType getType() {
+        return type;
+    }
+
+    public @Nullable Trace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public String toString() {
+        return target + " :" + message;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.messaging.MessageType;
+
+/**
+ * A message as it is issued to a bridge, before any processing took place.
+ * @since 5.0.2
+ */
+public final class IncomingMessage {
+
+    private final @NotNull MessageType type;
+    private final @NotNull String user;
+    private final @Nullable String content;
+
+    /**
+     * Creates a message.
+     * @param type The type of the message
+     * @param user The user that caused the message
+     * @param content The content of the message, the new nick for nick changes. Ignored for joins.
+     */
+    public IncomingMessage(@NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        this.type = type;
+        this.user = user;
+        this.content = content;
+    }
+
+    public @NotNull MessageType getType() {
+        return type;
+    }
+
+    public @NotNull String getUser() {
+        return user;
+    }
+
+    public @Nullable String getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + user + (content == null ? "" : " " + content);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minestom.server.entity.Player;
+import net.minestom.server.instance.Instance;
+
+/**
+ * Shows messages only to the players within some instances, so a server that runs separate instances
+ * for it's lobby or minigames can keep the IRC chat out of them.
+ * The players within the instances are tracked as they spawn into an instance or disconnect, so delivering
+ * a message does not need to look at the players of the other instances.
+ * Instances are selected by their unique id or by a name that the extension owning the instance gives it
+ * with {@link #name(String, Instance)}, the name has to be given before players spawn into the instance.
+ * @since 5.0.2
+ */
+public final class InstanceScope implements MessageSink<Delivery> {
+
+    private static final Map<UUID, String> NAMES = new ConcurrentHashMap<>();
+
+    private final Set<String> instances;
+    private final Set<Player> players = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a scope of the given instances.
+     * @param instanceNames The names or unique ids of the instances
+     */
+    public InstanceScope(@NotNull Collection<String> instanceNames) {
+        instances = Set.copyOf(instanceNames);
+    }
+
+    /**
+     * Gives an instance a name that it can be selected by in the configuration.
+     * @param name The name of the instance
+     * @param instance The instance
+     * @since 5.0.2
+     */
+    public static void name(@NotNull String name, @NotNull Instance instance) {
+        NAMES.put(instance.getUniqueId(), name);
+    }
+
+    /**
+     * Gets the name that was given to an instance.
+     * @param instance The instance
+     * @return The name, or null if the instance was not named
+     * @since 5.0.2
+     */
+    public static @Nullable String getName(@NotNull Instance instance) {
+        return NAMES.get(instance.getUniqueId());
+    }
+
+    /**
+     * Gets whether the players within the given instance see the messages.
+     * @param instance The instance
+     * @return True if the instance is part of the scope
+     */
+    public boolean contains(@Nullable Instance instance) {
+        if (instance == null) {
+            return false;
+        }
+        String name = NAMES.get(instance.getUniqueId());
+        return (name != null && instances.contains(name)) || instances.contains(instance.getUniqueId().toString());
+    }
+
+    /**
+     * Updates the scope after a player spawned into an instance, which is the case whenever a player
+     * enters an instance.
+     * @param player The player
+     * @param instance The instance the player spawned into
+     */
+    public void spawn(@NotNull Player player, @Nullable Instance instance) {
+        if (contains(instance)) {
+            players.add(player);
+        } else {
+            players.remove(player);
+        }
+    }
+
+    /**
+     * Removes a player that disconnected from the scope.
+     * @param player The player
+     */
+    public void remove(@NotNull Player player) {
+        players.remove(player);
+    }
+
+    /**
+     * Gets the amount of players that see the messages.
+     * @return player count
+     */
+    public int size() {
+        return players.size();
+    }
+
+    @Override
+    public void send(@NotNull List<Delivery> batch) {
+        for (Delivery delivery : batch) {
+            Collection<Player> recipients = delivery.getRecipients();
+            for (Player player : recipients == null ? players : recipients) {
+                if (recipients == null || players.contains(player)) {
+                    delivery.showTo(player);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the messages it is sent in memory, so tests and benchmarks can run the bridges without a network
+ * or a server and look at what the bridges sent afterwards.
+ * @param <T> The type of the messages
+ * @since 5.0.2
+ */
+public final class MemorySink<T> implements MessageSink<T> {
+
+    private final List<T> messages = new ArrayList<>();
+    private long batches;
+    private long total;
+
+    @Override
+    public synchronized void send(@NotNull List<T> batch) {
+        messages.addAll(batch);
+        batches++;
+        total += batch.size();
+    }
+
+    /**
+     * Removes and returns the messages that were sent since the last call.
+     * @return The messages in the order they were sent
+     */
+    public synchronized @NotNull List<T> drain() {
+        List<T> drained = new ArrayList<>(messages);
+        messages.clear();
+        return drained;
+    }
+
+    /**
+     * Gets the amount of messages that were sent, including the drained ones.
+     * @return message count
+     */
+    public synchronized long getCount() {
+        return total;
+    }
+
+    /**
+     * Gets the amount of batches the messages were sent in.
+     * @return batch count
+     */
+    public synchronized long getBatches() {
+        return batches;
+    }
+}
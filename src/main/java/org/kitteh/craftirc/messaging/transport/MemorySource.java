@@ -0,0 +1,64 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Passes messages that are pushed to it to a bridge, so tests and benchmarks can feed the bridges without
+ * an IRC connection or players.
+ * @since 5.0.2
+ */
+public final class MemorySource implements MessageSource {
+
+    private volatile @Nullable MessageSink<IncomingMessage> target;
+
+    @Override
+    public void open(@NotNull MessageSink<IncomingMessage> bridge) {
+        target = bridge;
+    }
+
+    @Override
+    public void close() {
+        target = null;
+    }
+
+    /**
+     * Passes a batch of messages to the bridge on the calling thread.
+     * @param batch The messages to pass
+     * @return false if the source is not open and the messages were dropped
+     */
+    public boolean push(@NotNull List<IncomingMessage> batch) {
+        MessageSink<IncomingMessage> bridge = target;
+        if (bridge == null) {
+            return false;
+        }
+        bridge.send(batch);
+        return true;
+    }
+}
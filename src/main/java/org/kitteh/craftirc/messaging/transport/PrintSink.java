@@ -0,0 +1,118 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.messaging.transport;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes the messages it is sent as lines of text, to a file or to the standard output for example.
+ * Each batch is flushed once after all of it's messages are written.
+ * @param <T> The type of the messages
+ * @since 5.0.2
+ */
+public final class PrintSink<T> implements MessageSink<T>, Closeable {
+
+    private final Writer out;
+    private final Function<T, String> formatter;
+
+    /**
+     * Creates a sink that writes to the given stream. Closing the sink closes the stream.
+     * @param stream The stream to write to
+     * @param formatter Converts a message into the line that is written
+     */
+    public PrintSink(@NotNull OutputStream stream, @NotNull Function<T, String> formatter) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.formatter = formatter;
+    }
+
+    /**
+     * Creates a sink that appends to the given file, creating it if needed.
+     * @param <T> The type of the messages
+     * @param file The file to write to
+     * @param formatter Converts a message into the line that is written
+     * @return The sink
+     * @throws IOException If the file can not be opened
+     */
+    public static <T> @NotNull PrintSink<T> toFile(@NotNull Path file, @NotNull Function<T, String> formatter) throws IOException {
+        return new PrintSink<>(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), formatter);
+    }
+
+    /**
+     * Creates a sink that writes to the standard output. The standard output is not closed with the sink.
+     * @param <T> The type of the messages
+     * @param formatter Converts a message into the line that is written
+     * @return The sink
+     */
+    public static <T> @NotNull PrintSink<T> toStdout(@NotNull Function<T, String> formatter) {
+        return new PrintSink<>(new OutputStream() {
+            @Override
+            public void write(int b) {
+                System.out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                System.out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+                System.out.flush();
+            }
+        }, formatter);
+    }
+
+    @Override
+    public synchronized void send(@NotNull List<T> batch) {
+        try {
+            for (T message : batch) {
+                out.write(formatter.apply(message));
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
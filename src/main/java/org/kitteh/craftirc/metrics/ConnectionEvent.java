@@ -0,0 +1,85 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a connection of a bot to it's IRC server or of a relay client to it's hub
+ * being established or lost.
+ * @since 5.0.2
+ */
+@Name("org.kitteh.craftirc.Connection")
+@Label("Connection")
+@Category("CraftIRC")
+@Description("A connection to an IRC server or relay hub was established or lost")
+@StackTrace(false)
+public final class ConnectionEvent extends Event {
+
+    @Label("Name")
+    @Description("The name of the bot or relay connection")
+    String name;
+
+    @Label("Established")
+    @Description("True if the connection was established, false if it was lost")
+    boolean established;
+
+    @Label("Reconnect")
+    @Description("True if the connection was established again, or if a reconnect will be attempted after losing it")
+    boolean reconnect;
+
+    @Label("Cause")
+    String cause;
+
+    private ConnectionEvent() {
+    }
+
+    /**
+     * Commits an event if the event is enabled.
+     *
+     * @param name the name of the bot or relay connection
+     * @param established true if the connection was established, false if it was lost
+     * @param reconnect true if this is a reconnect, or a reconnect will be attempted
+     * @param cause the reason the connection was lost, may be null
+     */
+    public static void commit(@NotNull String name, boolean established, boolean reconnect, @Nullable String cause) {
+        ConnectionEvent event = new ConnectionEvent();
+        if (event.isEnabled()) {
+            event.name = name;
+            event.established = established;
+            event.reconnect = reconnect;
+            event.cause = cause;
+            event.commit();
+        }
+    }
+}
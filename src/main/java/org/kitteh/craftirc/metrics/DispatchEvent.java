@@ -0,0 +1,159 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.messaging.processing.MessageProcessingStage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a message that crossed the bridge, including the time each processing stage took.
+ * The stage durations are only measured while the event is enabled in the recording.
+ * @since 5.0.2
+ */
+@Name("org.kitteh.craftirc.Dispatch")
+@Label("Message Dispatch")
+@Category("CraftIRC")
+@Description("A message that was processed by the bridge between Minestom and IRC")
+@StackTrace(false)
+public final class DispatchEvent extends Event {
+
+    @Label("Bot")
+    String bot;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Message Type")
+    String type;
+
+    @Label("Process")
+    @Timespan
+    long process;
+
+    @Label("Post Process")
+    @Timespan
+    long postProcess;
+
+    @Label("Format")
+    @Timespan
+    long format;
+
+    @Label("Post Format")
+    @Timespan
+    long postFormat;
+
+    @Label("Send")
+    @Description("Time spent handing the message to the IRC client or broadcasting it to the players")
+    @Timespan
+    long send;
+
+    @Label("Cancelled")
+    boolean cancelled;
+
+    private transient long last;
+
+    private DispatchEvent() {
+    }
+
+    /**
+     * Begins the event of a message.
+     *
+     * @param bot the name of the bot
+     * @param direction the direction the message crosses the bridge in
+     * @param type the type of the message
+     * @return the event
+     */
+    @NotNull
+    public static DispatchEvent begin(@NotNull String bot, @NotNull Trace.Direction direction, @NotNull MessageType type) {
+        DispatchEvent event = new DispatchEvent();
+        if (event.isEnabled()) {
+            event.bot = bot;
+            event.direction = direction.name();
+            event.type = type.name();
+            event.begin();
+            event.last = System.nanoTime();
+        }
+        return event;
+    }
+
+    /**
+     * Records that the message passed a processing stage.
+     *
+     * @param stage the stage that is done
+     */
+    public void stage(@NotNull MessageProcessingStage stage) {
+        if (!this.isEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long duration = now - this.last;
+        this.last = now;
+        switch (stage) {
+        case PROCESS:
+            this.process = duration;
+            break;
+        case POST_PROCESS:
+            this.postProcess = duration;
+            break;
+        case FORMAT:
+            this.format = duration;
+            break;
+        case POSTFORMAT:
+            this.postFormat = duration;
+            break;
+        }
+    }
+
+    /**
+     * Records that the message was sent and commits the event.
+     */
+    public void sent() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        this.send = System.nanoTime() - this.last;
+        this.commit();
+    }
+
+    /**
+     * Records that the message was cancelled by a preprocessor and commits the event.
+     */
+    public void cancelled() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        this.cancelled = true;
+        this.commit();
+    }
+}
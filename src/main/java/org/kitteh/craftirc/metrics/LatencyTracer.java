@@ -0,0 +1,149 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Samples messages of a bot and collects how long they took to reach each hop.
+ * When sampling is disabled no trace is ever created, so the only cost left on the message path is a null check.
+ * @since 5.0.2
+ */
+public final class LatencyTracer {
+
+    /**
+     * The maximum amount of traces waiting for their line to be written, any more are dropped.
+     */
+    private static final int MAX_PENDING = 64;
+
+    /**
+     * The time in nanoseconds after which a trace that is still waiting for it's line to be written is given up.
+     */
+    private static final long PENDING_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final int sampleRate;
+    private final AtomicLong counter = new AtomicLong();
+    private final LatencyHistogram[][] histograms = new LatencyHistogram[Trace.Direction.values().length][Trace.Hop.values().length];
+    private final Map<String, Trace> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new tracer.
+     *
+     * @param sampleRate trace one in this many messages, 0 to disable tracing
+     */
+    public LatencyTracer(int sampleRate) {
+        this.sampleRate = Math.max(sampleRate, 0);
+        for (LatencyHistogram[] direction : this.histograms) {
+            for (int i = 0; i < direction.length; i++) {
+                direction[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * Checks whether messages are sampled at all.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return this.sampleRate != 0;
+    }
+
+    /**
+     * Begins a trace if the next message is sampled.
+     *
+     * @param direction the direction the message crosses the bridge in
+     * @return the trace, or null if the message is not sampled
+     */
+    @Nullable
+    public Trace begin(@NotNull Trace.Direction direction) {
+        if (this.sampleRate == 0 || this.counter.getAndIncrement() % this.sampleRate != 0) {
+            return null;
+        }
+        return new Trace(this, direction);
+    }
+
+    /**
+     * Remembers a trace until the IRC client writes the given line.
+     *
+     * @param trace the trace
+     * @param line the raw line as it will be written
+     */
+    public void awaitWrite(@NotNull Trace trace, @NotNull String line) {
+        trace.mark(Trace.Hop.HANDOFF);
+        if (this.pendingWrites.size() >= MAX_PENDING) {
+            // Lines that are never written, for example because the connection was lost, would otherwise fill
+            // the map for good and stop the tracing of writes
+            long now = System.nanoTime();
+            this.pendingWrites.values().removeIf(pending -> now - pending.getStart() > PENDING_TIMEOUT);
+        }
+        if (this.pendingWrites.size() < MAX_PENDING) {
+            this.pendingWrites.put(line, trace);
+        }
+    }
+
+    /**
+     * Informs the tracer that the IRC client wrote a line, called by the output listener of the client.
+     *
+     * @param line the raw line
+     */
+    public void written(@NotNull String line) {
+        if (this.pendingWrites.isEmpty()) {
+            return;
+        }
+        Trace trace = this.pendingWrites.remove(line);
+        if (trace != null) {
+            trace.finish(Trace.Hop.WRITE);
+        }
+    }
+
+    void publish(@NotNull Trace trace) {
+        LatencyHistogram[] direction = this.histograms[trace.getDirection().ordinal()];
+        for (Trace.Hop hop : Trace.Hop.values()) {
+            long nanos = trace.getHop(hop);
+            if (nanos != 0) {
+                direction[hop.ordinal()].record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Gets the histogram of the time messages took from being received to reaching a hop.
+     *
+     * @param direction the direction of the messages
+     * @param hop the hop
+     * @return the histogram
+     */
+    @NotNull
+    public LatencyHistogram getHistogram(@NotNull Trace.Direction direction, @NotNull Trace.Hop hop) {
+        return this.histograms[direction.ordinal()][hop.ordinal()];
+    }
+}
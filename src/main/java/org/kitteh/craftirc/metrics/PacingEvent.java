@@ -0,0 +1,77 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a change of the rate a bot sends lines to IRC at.
+ * @since 5.0.2
+ */
+@Name("org.kitteh.craftirc.Pacing")
+@Label("Send Pacing")
+@Category("CraftIRC")
+@Description("The time between two lines a bot sends to IRC was changed")
+@StackTrace(false)
+public final class PacingEvent extends Event {
+
+    @Label("Bot")
+    String bot;
+
+    @Label("Interval")
+    @Timespan(Timespan.MILLISECONDS)
+    long interval;
+
+    @Label("Reason")
+    String reason;
+
+    private PacingEvent() {
+    }
+
+    /**
+     * Commits an event if the event is enabled.
+     *
+     * @param bot the name of the bot
+     * @param interval the new interval in milliseconds
+     * @param reason why the interval was changed
+     */
+    public static void commit(@NotNull String bot, long interval, @NotNull String reason) {
+        PacingEvent event = new PacingEvent();
+        if (event.isEnabled()) {
+            event.bot = bot;
+            event.interval = interval;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a message that was dropped because a queue was full.
+ * @since 5.0.2
+ */
+@Name("org.kitteh.craftirc.QueueOverflow")
+@Label("Queue Overflow")
+@Category("CraftIRC")
+@Description("A message was dropped because the queue it should have been added to was full")
+@StackTrace(false)
+public final class QueueOverflowEvent extends Event {
+
+    @Label("Queue")
+    String queue;
+
+    @Label("Capacity")
+    int capacity;
+
+    @Label("Dropped")
+    @Description("The amount of messages the queue dropped so far")
+    long dropped;
+
+    private QueueOverflowEvent() {
+    }
+
+    /**
+     * Commits an event if the event is enabled.
+     *
+     * @param queue the name of the queue
+     * @param capacity the capacity of the queue
+     * @param dropped the amount of messages the queue dropped so far
+     */
+    public static void commit(@NotNull String queue, int capacity, long dropped) {
+        QueueOverflowEvent event = new QueueOverflowEvent();
+        if (event.isEnabled()) {
+            event.queue = queue;
+            event.capacity = capacity;
+            event.dropped = dropped;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The timestamps of a single sampled message on it's way across the bridge.
+ * Each hop is stored as the time that passed since the trace began, which is when the message was received by the
+ * event listener.
+ * @since 5.0.2
+ */
+public final class Trace {
+
+    /**
+     * The points a message passes on it's way across the bridge.
+     */
+    public enum Hop {
+        /**
+         * The message was passed from the event listener to the bridge.
+         */
+        ENQUEUE,
+        /**
+         * The preprocessors of the PROCESS stage are done.
+         */
+        PROCESS,
+        /**
+         * The preprocessors of the POST_PROCESS stage are done.
+         */
+        POST_PROCESS,
+        /**
+         * The processors of the FORMAT stage are done.
+         */
+        FORMAT,
+        /**
+         * The processors of the POSTFORMAT stage are done.
+         */
+        POSTFORMAT,
+        /**
+         * The message was handed to the IRC client.
+         */
+        HANDOFF,
+        /**
+         * The IRC client wrote the message to the socket, ends traces towards IRC.
+         */
+        WRITE,
+        /**
+         * The message was sent to the players, ends traces towards Minestom.
+         */
+        BROADCAST;
+    }
+
+    /**
+     * The direction a message crosses the bridge in.
+     */
+    public enum Direction {
+        TO_IRC,
+        TO_MINESTOM;
+    }
+
+    private final LatencyTracer tracer;
+    private final Direction direction;
+    private final long start = System.nanoTime();
+    private final long[] hops = new long[Hop.values().length];
+    private boolean finished;
+
+    Trace(@NotNull LatencyTracer tracer, @NotNull Direction direction) {
+        this.tracer = tracer;
+        this.direction = direction;
+    }
+
+    /**
+     * Gets the direction the traced message crosses the bridge in.
+     *
+     * @return the direction
+     */
+    @NotNull
+    public Direction getDirection() {
+        return this.direction;
+    }
+
+    /**
+     * Records that the message reached a hop.
+     *
+     * @param hop the reached hop
+     */
+    public void mark(@NotNull Hop hop) {
+        // Never store 0, it marks hops that were not reached
+        this.hops[hop.ordinal()] = Math.max(System.nanoTime() - this.start, 1);
+    }
+
+    /**
+     * Records that the message reached the last hop and publishes the trace.
+     * Only the first call has an effect.
+     *
+     * @param hop the last hop
+     */
+    public void finish(@NotNull Hop hop) {
+        synchronized (this) {
+            if (this.finished) {
+                return;
+            }
+            this.finished = true;
+            this.mark(hop);
+        }
+        this.tracer.publish(this);
+    }
+
+    long getStart() {
+        return this.start;
+    }
+
+    long getHop(@NotNull Hop hop) {
+        return this.hops[hop.ordinal()];
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.relay;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.irc.BotManager;
+import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.metrics.ConnectionEvent;
+
+/**
+ * The side of the relay that uses the IRC connections of a hub instead of connecting to IRC itself.
+ * The connection to the hub is re-established automatically if it is lost. Lines that are sent while
+ * the client is not connected are dropped.
+ * @since 5.0.2
+ */
+public final class RelayClient {
+
+    private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final String secret;
+    private BotManager botManager;
+    private Thread connector;
+    private volatile RelayConnection connection;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a client that connects to the given hub once it is started.
+     *
+     * @param host the address of the hub
+     * @param port the port of the hub
+     * @param name the name the client introduces itself with
+     * @param secret the secret the hub expects
+     */
+    public RelayClient(@NotNull String host, int port, @NotNull String name, @NotNull String secret) {
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.secret = secret;
+    }
+
+    /**
+     * Starts connecting to the hub.
+     *
+     * @param botManager the bot manager owning the bots the events of the hub are issued to
+     */
+    public synchronized void start(@NotNull BotManager botManager) {
+        if (this.connector != null) {
+            return;
+        }
+        this.botManager = botManager;
+        this.connector = new Thread(this::connectLoop, "CraftIRC relay client");
+        this.connector.setDaemon(true);
+        this.connector.start();
+    }
+
+    /**
+     * Asks the hub to send a line to IRC.
+     *
+     * @param bot the name of the bot that should send the line
+     * @param target the channel or user to send the line to
+     * @param type the type of the message the line was formatted from, which decides it's priority at the hub
+     * @param line the formatted line
+     * @return false if the line was dropped
+     */
+    public boolean sendLine(@NotNull String bot, @NotNull String target, @NotNull MessageType type, @NotNull String line) {
+        RelayConnection current = this.connection;
+        return current != null && current.send(RelayProtocol.line(bot, target, type, line));
+    }
+
+    /**
+     * Gets whether the client is currently connected to the hub.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        RelayConnection current = this.connection;
+        return current != null && current.isOpen();
+    }
+
+    private void connectLoop() {
+        long delay = MIN_RETRY_DELAY;
+        boolean connectedBefore = false;
+        while (this.running) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(this.host, this.port), (int) MAX_RETRY_DELAY);
+                socket.setTcpNoDelay(true);
+                Object closed = new Object();
+                RelayConnection current = new RelayConnection(socket, this.host + ':' + this.port, this::handle, connection -> {
+                    synchronized (closed) {
+                        closed.notifyAll();
+                    }
+                });
+                current.send(RelayProtocol.hello(this.name, this.secret));
+                this.connection = current;
+                ConnectionEvent.commit("relay " + this.host + ':' + this.port, true, connectedBefore, null);
+                connectedBefore = true;
+                synchronized (closed) {
+                    current.start();
+                    while (current.isOpen()) {
+                        closed.wait();
+                    }
+                }
+                delay = MIN_RETRY_DELAY;
+                ConnectionEvent.commit("relay " + this.host + ':' + this.port, false, this.running, null);
+            } catch (IOException e) {
+                // Hub not reachable, try again later
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.connection = null;
+            if (!this.running) {
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+        }
+    }
+
+    private void handle(@NotNull RelayConnection connection, byte type, @NotNull DataInputStream payload) throws IOException {
+        if (type != RelayProtocol.EVENT) {
+            throw new IOException("Unexpected frame type " + type);
+        }
+        IRCBot bot = this.botManager.getBot(payload.readUTF());
+        MessageType messageType = RelayProtocol.readType(payload);
+        String user = payload.readUTF();
+        @Nullable String content = RelayProtocol.readNullable(payload);
+        if (bot == null) {
+            return;
+        }
+        try {
+            bot.getToMinestom().issue(messageType, user, content);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Disconnects from the hub and stops reconnecting.
+     */
+    public void shutdown() {
+        this.running = false;
+        RelayConnection current = this.connection;
+        if (current != null) {
+            current.close();
+        }
+        if (this.connector != null) {
+            this.connector.interrupt();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.relay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.kitteh.craftirc.metrics.QueueOverflowEvent;
+
+/**
+ * A single connection between a hub and a client.
+ * Frames are read on a dedicated thread and passed to a handler. Outgoing frames are queued and written by another thread,
+ * which writes everything that queued up in the meantime before flushing, so bursts of messages are batched into few writes.
+ */
+final class RelayConnection {
+
+    /**
+     * The amount of frames that may wait to be written before frames are dropped.
+     */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /**
+     * The maximum amount of frames written before the output is flushed.
+     */
+    private static final int MAX_BATCH = 256;
+
+    @FunctionalInterface
+    interface FrameHandler {
+        void handle(@NotNull RelayConnection connection, byte type, @NotNull DataInputStream payload) throws IOException;
+    }
+
+    private final Socket socket;
+    private final String name;
+    private final FrameHandler handler;
+    private final Consumer<RelayConnection> closeHandler;
+    private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread reader;
+    private final Thread writer;
+    private volatile boolean open = true;
+
+    RelayConnection(@NotNull Socket socket, @NotNull String name, @NotNull FrameHandler handler, @NotNull Consumer<RelayConnection> closeHandler) {
+        this.socket = socket;
+        this.name = name;
+        this.handler = handler;
+        this.closeHandler = closeHandler;
+        this.reader = new Thread(this::readLoop, "CraftIRC relay reader " + name);
+        this.writer = new Thread(this::writeLoop, "CraftIRC relay writer " + name);
+        this.reader.setDaemon(true);
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        this.reader.start();
+        this.writer.start();
+    }
+
+    /**
+     * Queues a frame to be written.
+     *
+     * @param frame the encoded frame
+     * @return false if the frame was dropped because the connection is closed or too far behind
+     */
+    boolean send(@NotNull byte[] frame) {
+        if (!this.open) {
+            return false;
+        }
+        if (!this.outbound.offer(frame)) {
+            QueueOverflowEvent.commit("relay " + this.name, QUEUE_CAPACITY, this.dropped.incrementAndGet());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the amount of frames that were dropped because the other side could not keep up.
+     *
+     * @return dropped frame count
+     */
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    boolean isOpen() {
+        return this.open;
+    }
+
+    @NotNull
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * Sets how long a read may block before the connection is closed, see {@link Socket#setSoTimeout(int)}.
+     *
+     * @param timeout the timeout in milliseconds, or 0 to wait forever
+     */
+    void setReadTimeout(int timeout) {
+        try {
+            this.socket.setSoTimeout(timeout);
+        } catch (SocketException e) {
+            this.close();
+        }
+    }
+
+    void close() {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        try {
+            this.socket.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        this.writer.interrupt();
+        this.closeHandler.accept(this);
+    }
+
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()))) {
+            while (this.open) {
+                int length = in.readInt();
+                if (length < 1 || length > RelayProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                this.handler.handle(this, frame[0], new DataInputStream(new ByteArrayInputStream(frame, 1, length - 1)));
+            }
+        } catch (EOFException e) {
+            // The other side closed the connection
+        } catch (SocketTimeoutException e) {
+            // The other side stayed silent for longer than it was allowed to
+        } catch (IOException | RuntimeException e) {
+            if (this.open) {
+                e.printStackTrace();
+            }
+        } finally {
+            this.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        try (OutputStream out = new BufferedOutputStream(this.socket.getOutputStream(), 1 << 16)) {
+            while (this.open) {
+                batch.add(this.outbound.take());
+                this.outbound.drainTo(batch, MAX_BATCH - 1);
+                for (byte[] frame : batch) {
+                    out.write(frame);
+                }
+                batch.clear();
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (this.open) {
+                e.printStackTrace();
+            }
+        } finally {
+            this.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.relay;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.craftirc.irc.BotManager;
+import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.irc.PrivateMessages;
+import org.kitteh.craftirc.messaging.MessageType;
+import org.kitteh.craftirc.messaging.transport.IRCLine;
+
+/**
+ * The side of the relay that owns the IRC connections. Clients send the lines they want to have sent to IRC to the hub,
+ * and the hub forwards everything that happens in IRC to all of it's clients.
+ * IRC does not echo a line back to the connection that sent it, so the hub also passes every channel line it sends, be it
+ * from it's own players or from a client, on to the players of all other servers, as if it came from IRC.
+ * @since 5.0.2
+ */
+public final class RelayHub {
+
+    /**
+     * The time in milliseconds a client has to introduce itself before it is disconnected.
+     */
+    private static final int HELLO_TIMEOUT = 10000;
+
+    private final BotManager botManager;
+    private final byte[] secret;
+    private final ServerSocket serverSocket;
+    private final Set<RelayConnection> clients = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private final ThreadLocal<RelayConnection> origin = new ThreadLocal<>();
+    private volatile boolean running = true;
+
+    /**
+     * Starts a hub that listens on the given address.
+     *
+     * @param botManager the bot manager that owns the bots the clients can use
+     * @param host the address to bind to, should usually be a loopback address
+     * @param port the port to listen on
+     * @param secret the secret clients have to know, as anything that can reach the port could use the bots otherwise
+     * @throws IOException if the socket could not be bound
+     */
+    public RelayHub(@NotNull BotManager botManager, @NotNull String host, int port, @NotNull String secret) throws IOException {
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("The relay hub needs a secret");
+        }
+        this.botManager = botManager;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+        this.acceptor = new Thread(this::acceptLoop, "CraftIRC relay hub");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    /**
+     * Registers a bot so that everything it receives from IRC and everything the players of the hub send to IRC through it
+     * is forwarded to the clients.
+     *
+     * @param bot the bot to forward
+     */
+    public void forward(@NotNull IRCBot bot) {
+        String name = bot.getName();
+        bot.getToMinestom().addListener((type, user, content) -> this.broadcast(name, type, user, content));
+        bot.getToIRC().addTap(lines -> {
+            for (IRCLine line : lines) {
+                this.broadcast(name, MessageType.CHAT, bot.getNick(), line.getMessage());
+            }
+        });
+    }
+
+    private void broadcast(@NotNull String bot, @NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        if (this.clients.isEmpty()) {
+            return;
+        }
+        RelayConnection from = this.origin.get();
+        byte[] frame = RelayProtocol.event(bot, type, user, content);
+        for (RelayConnection client : this.clients) {
+            if (client != from) {
+                client.send(frame);
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                RelayConnection connection = new RelayConnection(socket, socket.getRemoteSocketAddress().toString(), this::handle,
+                        this.clients::remove);
+                connection.setReadTimeout(HELLO_TIMEOUT);
+                connection.start();
+            } catch (IOException e) {
+                if (this.running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void handle(@NotNull RelayConnection connection, byte type, @NotNull DataInputStream payload) throws IOException {
+        switch (type) {
+        case RelayProtocol.HELLO:
+            int version = payload.readInt();
+            if (version != RelayProtocol.VERSION) {
+                CraftIRC.log().warn(String.format("Rejecting relay client from %s with protocol version %d", connection.getName(), version));
+                connection.close();
+                return;
+            }
+            String name = payload.readUTF();
+            if (!MessageDigest.isEqual(this.secret, payload.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                CraftIRC.log().warn(String.format("Rejecting relay client %s from %s with a wrong secret", name, connection.getName()));
+                connection.close();
+                return;
+            }
+            CraftIRC.log().info(String.format("Relay client %s connected from %s", name, connection.getName()));
+            connection.setReadTimeout(0);
+            this.clients.add(connection);
+            break;
+        case RelayProtocol.LINE:
+            if (!this.clients.contains(connection)) {
+                throw new IOException("Relay client did not introduce itself");
+            }
+            IRCBot bot = this.botManager.getBot(payload.readUTF());
+            String target = payload.readUTF();
+            MessageType lineType = RelayProtocol.readType(payload);
+            String line = payload.readUTF();
+            if (bot == null) {
+                break;
+            }
+            if (!this.mayTarget(bot, target)) {
+                CraftIRC.log().warn(String.format("Relay client %s tried to send a line to %s through bot %s",
+                        connection.getName(), target, bot.getName()));
+                break;
+            }
+            bot.sendMessage(target, line, lineType, null);
+            if (bot.isChannel(target)) {
+                // Show the line to the players of the hub, which also hands it to all other clients
+                this.origin.set(connection);
+                try {
+                    bot.getToMinestom().issue(MessageType.CHAT, bot.getNick(), line);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    this.origin.remove();
+                }
+            }
+            break;
+        default:
+            throw new IOException("Unexpected frame type " + type);
+        }
+    }
+
+    /**
+     * Gets whether a client may send lines to a target, which are the channels of the bot and the users it can see or
+     * exchanged private messages with. Clients can not make the bot talk to anything else, services like NickServ
+     * included.
+     */
+    private boolean mayTarget(@NotNull IRCBot bot, @NotNull String target) {
+        if (bot.isChannel(target)) {
+            return bot.hasChannel(target);
+        }
+        PrivateMessages privateMessages = bot.getPrivateMessages();
+        return privateMessages != null && privateMessages.knows(target);
+    }
+
+    /**
+     * Gets the amount of connected clients.
+     *
+     * @return client count
+     */
+    public int getClientCount() {
+        return this.clients.size();
+    }
+
+    /**
+     * Stops the hub and disconnects all clients.
+     */
+    public void shutdown() {
+        this.running = false;
+        try {
+            this.serverSocket.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        this.clients.forEach(RelayConnection::close);
+        this.clients.clear();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.messaging.MessageType;
+
+/**
+ * The wire format spoken between a relay hub and it's clients.
+ * Every frame starts with the length of the rest of the frame as a 4 byte integer, followed by a single byte that
+ * identifies the type of the frame and the payload of the frame. Strings within the payload are encoded in modified UTF-8
+ * as written by {@link DataOutputStream#writeUTF(String)}, nullable strings are preceded by a boolean that denotes whether
+ * the string is present.
+ * @since 5.0.2
+ */
+public final class RelayProtocol {
+
+    /**
+     * The version of the protocol. Hubs and clients only talk to each other if they use the same version.
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * The largest frame that is accepted, larger frames are a sign of a broken connection.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Sent by the client once it connected. Payload: protocol version (int), name of the client (string),
+     * the secret shared by the hub and it's clients (string).
+     */
+    public static final byte HELLO = 1;
+
+    /**
+     * Sent by a client to let the hub send a formatted line to IRC. The type of the message the line was formatted from
+     * decides the priority the hub queues the line with.
+     * Payload: name of the bot (string), target (string), message type ordinal (byte), line (string).
+     */
+    public static final byte LINE = 2;
+
+    /**
+     * Sent by the hub to inform clients about an event that happened in IRC.
+     * Payload: name of the bot (string), message type ordinal (byte), user (string), content (nullable string).
+     */
+    public static final byte EVENT = 3;
+
+    private RelayProtocol() {
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @NotNull
+    private static byte[] frame(byte type, @NotNull PayloadWriter payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // Length placeholder
+            out.writeByte(type);
+            payload.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory should never fail", e);
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    @NotNull
+    public static byte[] hello(@NotNull String name, @NotNull String secret) {
+        return frame(HELLO, out -> {
+            out.writeInt(VERSION);
+            out.writeUTF(name);
+            out.writeUTF(secret);
+        });
+    }
+
+    @NotNull
+    public static byte[] line(@NotNull String bot, @NotNull String target, @NotNull MessageType type, @NotNull String line) {
+        return frame(LINE, out -> {
+            out.writeUTF(bot);
+            out.writeUTF(target);
+            out.writeByte(type.ordinal());
+            out.writeUTF(line);
+        });
+    }
+
+    @NotNull
+    public static byte[] event(@NotNull String bot, @NotNull MessageType type, @NotNull String user, @Nullable String content) {
+        return frame(EVENT, out -> {
+            out.writeUTF(bot);
+            out.writeByte(type.ordinal());
+            out.writeUTF(user);
+            writeNullable(out, content);
+        });
+    }
+
+    static void writeNullable(@NotNull DataOutputStream out, @Nullable String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    @Nullable
+    static String readNullable(@NotNull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @NotNull
+    static MessageType readType(@NotNull DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        MessageType[] types = MessageType.values();
+        if (ordinal >= types.length) {
+            throw new IOException("Unknown message type " + ordinal);
+        }
+        return types[ordinal];
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.load;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A minimal IRC server stand-in that runs in process.
+ * It answers registration, capability negotiation, JOIN and PING just well enough for a client to join it's
+ * channels and records every PRIVMSG it receives. Anything else is ignored.
+ */
+public final class FakeIRCServer implements Closeable {
+
+    /**
+     * Receives the PRIVMSGs sent to the server.
+     */
+    @FunctionalInterface
+    public interface PrivmsgListener {
+        void onPrivmsg(@NotNull String target, @NotNull String text);
+    }
+
+    private static final String NAME = "fake.server";
+
+    private final ServerSocket socket;
+    private final Thread acceptor;
+    private final String capabilities;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicLong privmsgs = new AtomicLong();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private volatile PrivmsgListener listener = (target, text) -> { };
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     *
+     * @param capabilities the capabilities offered to clients, may be empty
+     * @throws IOException if the socket could not be bound
+     */
+    public FakeIRCServer(@NotNull String... capabilities) throws IOException {
+        this.capabilities = String.join(" ", capabilities);
+        this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "FakeIRCServer acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return this.socket.getLocalPort();
+    }
+
+    public void setListener(@NotNull PrivmsgListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the amount of PRIVMSGs received from all clients.
+     *
+     * @return the count
+     */
+    public long getPrivmsgCount() {
+        return this.privmsgs.get();
+    }
+
+    /**
+     * Gets the amount of channels the connected clients have joined in total.
+     *
+     * @return the count
+     */
+    public int getJoinedChannelCount() {
+        int count = 0;
+        for (Connection connection : this.connections) {
+            count += connection.channels.size();
+        }
+        return count;
+    }
+
+    /**
+     * Sends a channel message to one of the clients, picking the clients in turn.
+     *
+     * @param nick the nick of the sender
+     * @param text the message
+     * @return false if no client has joined a channel yet
+     */
+    public boolean inject(@NotNull String nick, @NotNull String text) {
+        List<Connection> joined = new ArrayList<>();
+        for (Connection connection : this.connections) {
+            if (!connection.channels.isEmpty()) {
+                joined.add(connection);
+            }
+        }
+        if (joined.isEmpty()) {
+            return false;
+        }
+        Connection connection = joined.get(Math.floorMod(this.nextConnection.getAndIncrement(), joined.size()));
+        String channel = connection.channels.iterator().next();
+        connection.send(':' + nick + '!' + nick + "@load.test PRIVMSG " + channel + " :" + text);
+        return true;
+    }
+
+    private void accept() {
+        while (!this.socket.isClosed()) {
+            try {
+                Connection connection = new Connection(this.socket.accept());
+                this.connections.add(connection);
+                Thread reader = new Thread(connection, "FakeIRCServer connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!this.socket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+        for (Connection connection : this.connections) {
+            connection.close();
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final Writer out;
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        private String nick = "*";
+        private boolean user;
+        private boolean registered;
+
+        Connection(@NotNull Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    this.handle(line);
+                }
+            } catch (SocketException e) {
+                // Closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                FakeIRCServer.this.connections.remove(this);
+                this.close();
+            }
+        }
+
+        private void handle(@NotNull String line) {
+            if (line.startsWith("@")) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    return;
+                }
+                line = line.substring(space + 1);
+            }
+            String trailing = null;
+            int colon = line.indexOf(" :");
+            if (colon >= 0) {
+                trailing = line.substring(colon + 2);
+                line = line.substring(0, colon);
+            }
+            String[] params = line.split(" ");
+            String arg = params.length > 1 ? params[1] : trailing;
+            if (arg == null) {
+                return;
+            }
+            switch (params[0].toUpperCase()) {
+            case "CAP":
+                if (params.length > 1 && params[1].equalsIgnoreCase("LS")) {
+                    this.send(':' + NAME + " CAP * LS :" + FakeIRCServer.this.capabilities);
+                } else if (params.length > 1 && params[1].equalsIgnoreCase("REQ")) {
+                    this.send(':' + NAME + " CAP * ACK :" + (trailing == null ? "" : trailing));
+                }
+                break;
+            case "NICK":
+                this.nick = arg;
+                this.register();
+                break;
+            case "USER":
+                this.user = true;
+                this.register();
+                break;
+            case "PING":
+                this.send(':' + NAME + " PONG " + NAME + " :" + arg);
+                break;
+            case "JOIN":
+                for (String channel : arg.split(",")) {
+                    this.channels.add(channel);
+                    this.send(':' + this.nick + '!' + this.nick + "@load.test JOIN " + channel);
+                    this.send(':' + NAME + " 353 " + this.nick + " = " + channel + " :" + this.nick);
+                    this.send(':' + NAME + " 366 " + this.nick + ' ' + channel + " :End of /NAMES list.");
+                }
+                break;
+            case "WHO":
+                this.send(':' + NAME + " 315 " + this.nick + ' ' + arg + " :End of /WHO list.");
+                break;
+            case "MODE":
+                if (arg.startsWith("#")) {
+                    this.send(':' + NAME + " 324 " + this.nick + ' ' + arg + " +nt");
+                }
+                break;
+            case "PRIVMSG":
+                FakeIRCServer.this.privmsgs.incrementAndGet();
+                FakeIRCServer.this.listener.onPrivmsg(arg, trailing == null ? "" : trailing);
+                break;
+            case "QUIT":
+                this.close();
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void register() {
+            if (this.registered || !this.user || this.nick.equals("*")) {
+                return;
+            }
+            this.registered = true;
+            this.send(':' + NAME + " 001 " + this.nick + " :Welcome to the load test network");
+            this.send(':' + NAME + " 002 " + this.nick + " :Your host is " + NAME);
+            this.send(':' + NAME + " 003 " + this.nick + " :This server was created just now");
+            this.send(':' + NAME + " 004 " + this.nick + ' ' + NAME + " fake-1.0 iow ovbnt");
+            this.send(':' + NAME + " 005 " + this.nick + " CHANTYPES=# PREFIX=(ov)@+ CHANMODES=b,k,l,imnst NETWORK=LoadTest :are supported by this server");
+            this.send(':' + NAME + " 422 " + this.nick + " :MOTD File is missing");
+        }
+
+        synchronized void send(@NotNull String line) {
+            try {
+                this.out.write(line);
+                this.out.write("\r\n");
+                this.out.flush();
+            } catch (IOException e) {
+                this.close();
+            }
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
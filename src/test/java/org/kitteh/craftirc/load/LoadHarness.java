@@ -0,0 +1,289 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.load;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.craftirc.event.MinestomEventListener;
+import org.kitteh.craftirc.irc.BotManager;
+import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.messaging.processing.MessageProcessingStage;
+import org.kitteh.craftirc.metrics.LatencyHistogram;
+import org.kitteh.craftirc.metrics.LatencyTracer;
+import org.kitteh.craftirc.metrics.Trace;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
+
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.entity.Player;
+import net.minestom.server.event.player.PlayerChatEvent;
+import net.minestom.server.network.player.FakePlayerConnection;
+
+/**
+ * Drives a {@link BotManager} with synthetic chat traffic in both directions and reports the sustained throughput,
+ * the latency percentiles and the amount of dropped messages.
+ * All bots of the given configuration are pointed at an in-process {@link FakeIRCServer}. Chat events of simulated
+ * players are fired at the Minestom listener of the bots, channel messages are injected by the fake server. Each
+ * message carries a sequence number and the time it was fired, which is read back where the message arrives:
+ * in the PRIVMSG received by the fake server, or at the end of the POSTFORMAT stage right before the broadcast
+ * to the players.
+ * <p>
+ * This is not a unit test and is not run by the build. Run it with the exec plugin configured in the pom
+ * <pre>
+ * mvn test-compile exec:java -Dexec.args="config=src/main/resources/config.yml mc-rate=50 irc-rate=50 duration=30"
+ * </pre>
+ * Arguments are given as key=value pairs:
+ * <ul>
+ * <li>config - the CraftIRC config to load, the connection settings of the bots are replaced (default: the bundled config)</li>
+ * <li>mc-rate - chat messages per second fired by simulated players (default: 20)</li>
+ * <li>irc-rate - channel messages per second injected by the fake server (default: 20)</li>
+ * <li>players - the amount of simulated players (default: 20)</li>
+ * <li>duration - seconds to generate load for (default: 30)</li>
+ * <li>drain - seconds to wait for queued messages after the load stopped (default: 10)</li>
+ * <li>capabilities - comma separated capabilities the fake server offers (default: none)</li>
+ * </ul>
+ */
+public final class LoadHarness {
+
+    private static final Pattern TOKEN = Pattern.compile("L(\\d+)\\.(\\d+)");
+
+    /**
+     * The statistics of one direction.
+     */
+    private static final class Stats {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        volatile long lastReceived;
+
+        void receive(@NotNull String text) {
+            Matcher matcher = TOKEN.matcher(text);
+            if (matcher.find()) {
+                long now = System.nanoTime();
+                this.latency.record(now - Long.parseLong(matcher.group(2)));
+                this.received.incrementAndGet();
+                this.lastReceived = now;
+            }
+        }
+
+        @NotNull
+        String message() {
+            return "load test message L" + this.sent.getAndIncrement() + '.' + System.nanoTime() + " lorem ipsum dolor sit amet";
+        }
+
+        void report(@NotNull String name, long start, long stop) {
+            long sent = this.sent.get();
+            long received = this.received.get();
+            long end = Math.max(this.lastReceived, stop);
+            double seconds = (end - start) / 1e9;
+            System.out.printf("%s: sent %d, received %d, dropped %d, throughput %.1f msg/s%n",
+                    name, sent, received, sent - received, seconds > 0 ? received / seconds : 0);
+            System.out.printf("    latency p50 %s, p99 %s, max %s%n", millis(this.latency.getPercentile(50)),
+                    millis(this.latency.getPercentile(99)), millis(this.latency.getMax()));
+        }
+    }
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                System.err.println("Ignoring argument " + arg + ", expected key=value");
+                continue;
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        double mcRate = Double.parseDouble(options.getOrDefault("mc-rate", "20"));
+        double ircRate = Double.parseDouble(options.getOrDefault("irc-rate", "20"));
+        int playerCount = Integer.parseInt(options.getOrDefault("players", "20"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+        long drain = Long.parseLong(options.getOrDefault("drain", "10"));
+        String capabilities = options.getOrDefault("capabilities", "");
+
+        MinecraftServer.init();
+        CraftIRC.setLogger(LoggerFactory.getLogger("CraftIRC"));
+
+        try (FakeIRCServer server = new FakeIRCServer(capabilities.isEmpty() ? new String[0] : capabilities.split(","))) {
+            List<? extends ConfigurationNode> bots = loadBots(options.get("config"), server.getPort());
+            BotManager manager = new BotManager(bots);
+
+            Stats toIRC = new Stats();
+            Stats toMinestom = new Stats();
+            server.setListener((target, text) -> toIRC.receive(text));
+            List<MinestomEventListener> listeners = new ArrayList<>();
+            for (Map.Entry<String, IRCBot> bot : manager.getBots()) {
+                bot.getValue().getToMinestom().registerProcessor(MessageProcessingStage.POSTFORMAT, msg -> {
+                    if (msg.getOriginal() != null) {
+                        toMinestom.receive(msg.getOriginal());
+                    }
+                });
+                MinestomEventListener listener = manager.listeners.get(bot.getKey());
+                if (listener != null) {
+                    listeners.add(listener);
+                }
+            }
+
+            System.out.println("Waiting for " + bots.size() + " bot(s) to join their channels");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (server.getJoinedChannelCount() < bots.size() && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            if (server.getJoinedChannelCount() == 0) {
+                System.err.println("No bot joined a channel, giving up");
+                manager.shutdown();
+                return;
+            }
+
+            List<Player> players = new ArrayList<>();
+            for (int i = 0; i < playerCount; i++) {
+                players.add(new Player(UUID.randomUUID(), "LoadPlayer" + i, new FakePlayerConnection()));
+            }
+
+            System.out.printf("Generating %.1f msg/s towards IRC and %.1f msg/s towards Minestom for %d seconds%n", mcRate, ircRate, duration);
+            ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+            long start = System.nanoTime();
+            schedule(executor, mcRate, new Runnable() {
+                private int next;
+
+                @Override
+                public void run() {
+                    if (listeners.isEmpty()) {
+                        return;
+                    }
+                    int index = this.next++;
+                    Player player = players.get(index % players.size());
+                    PlayerChatEvent event = new PlayerChatEvent(player, players, toIRC.message());
+                    listeners.get(index % listeners.size()).onPlayerChat(event);
+                }
+            });
+            schedule(executor, ircRate, new Runnable() {
+                private int next;
+
+                @Override
+                public void run() {
+                    server.inject("LoadUser" + (this.next++ % playerCount), toMinestom.message());
+                }
+            });
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            long stop = System.nanoTime();
+
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drain);
+            while ((toIRC.received.get() < toIRC.sent.get() || toMinestom.received.get() < toMinestom.sent.get())
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+
+            System.out.println();
+            toIRC.report("Minestom to IRC", start, stop);
+            toMinestom.report("IRC to Minestom", start, stop);
+            for (Map.Entry<String, IRCBot> bot : manager.getBots()) {
+                LatencyTracer tracer = bot.getValue().getTracer();
+                if (!tracer.isEnabled()) {
+                    continue;
+                }
+                System.out.println("Traced hops of bot " + bot.getKey() + ":");
+                for (Trace.Direction direction : Trace.Direction.values()) {
+                    for (Trace.Hop hop : Trace.Hop.values()) {
+                        LatencyHistogram histogram = tracer.getHistogram(direction, hop);
+                        if (histogram.getCount() != 0) {
+                            System.out.printf("    %s %s: p50 %s, p99 %s, max %s%n", direction, hop,
+                                    millis(histogram.getPercentile(50)), millis(histogram.getPercentile(99)), millis(histogram.getMax()));
+                        }
+                    }
+                }
+            }
+            manager.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void schedule(@NotNull ScheduledExecutorService executor, double rate, @NotNull Runnable task) {
+        if (rate <= 0) {
+            return;
+        }
+        // Fire in batches every 10 ms, carrying the fraction over so that low rates work as well
+        double perTick = rate / 100;
+        executor.scheduleAtFixedRate(new Runnable() {
+            private double due;
+
+            @Override
+            public void run() {
+                this.due += perTick;
+                while (this.due >= 1) {
+                    this.due--;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @NotNull
+    private static List<? extends ConfigurationNode> loadBots(@Nullable String config, int port) throws Exception {
+        YamlConfigurationLoader.Builder loader = YamlConfigurationLoader.builder();
+        if (config == null) {
+            loader.url(LoadHarness.class.getClassLoader().getResource("config.yml"));
+        } else {
+            loader.file(new File(config));
+        }
+        List<? extends ConfigurationNode> bots = loader.build().load().node("bots").childrenList();
+        for (ConfigurationNode bot : bots) {
+            bot.node("host").set("127.0.0.1");
+            bot.node("port").set(port);
+            bot.node("ssl").set(false);
+            bot.node("password").set(null);
+            bot.node("bind").set(null);
+        }
+        return bots;
+    }
+
+    @NotNull
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * * Copyright (C) 2014-2018 Matt Baxter http://kitteh.org
+ * * Copyright (C) 2020-2021 Emeric Werner https://geolykt.de
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.craftirc.relay;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kitteh.craftirc.CraftIRC;
+import org.kitteh.craftirc.irc.BotManager;
+import org.kitteh.craftirc.irc.IRCBot;
+import org.kitteh.craftirc.load.FakeIRCServer;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
+
+import net.minestom.server.MinecraftServer;
+
+/**
+ * Runs a relay hub and a relay client on the loopback interface and checks that they talk to each other.
+ * The hub connects it's bot to a {@link FakeIRCServer}, the client uses the same bot through the hub. The check
+ * passes if a line the client sends reaches the IRC server, a line to a target the bot does not talk to is dropped
+ * by the hub and a channel message from IRC is passed on to the client as an event.
+ * <p>
+ * Like the load harness this is not run by the build. Run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.kitteh.craftirc.relay.RelayLoopbackCheck
+ * </pre>
+ * The process exits with status 1 if any check fails.
+ */
+public final class RelayLoopbackCheck {
+
+    private static final String SECRET = "loopback";
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private RelayLoopbackCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MinecraftServer.init();
+        CraftIRC.setLogger(LoggerFactory.getLogger("CraftIRC"));
+
+        boolean passed = false;
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            Queue<String> received = new ConcurrentLinkedQueue<>();
+            server.setListener((target, text) -> received.add(target + ' ' + text));
+            int port;
+            try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                port = free.getLocalPort();
+            }
+
+            List<? extends ConfigurationNode> bots = loadBots(server.getPort());
+            String name = bots.get(0).node("name").getString();
+            String channel = bots.get(0).node("channel").getString();
+            BotManager hub = new BotManager(bots, relay("hub", port), null);
+            BotManager client = new BotManager(bots, relay("client", port), null);
+            try {
+                passed = check(server, received, client.getBot(name), channel);
+            } finally {
+                client.shutdown();
+                hub.shutdown();
+            }
+        }
+        System.out.println(passed ? "Relay loopback check passed" : "Relay loopback check FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(@NotNull FakeIRCServer server, @NotNull Queue<String> received, @Nullable IRCBot clientBot,
+            @Nullable String channel) throws InterruptedException {
+        if (clientBot == null || channel == null) {
+            System.err.println("The bundled config has no bot with a channel");
+            return false;
+        }
+        if (!await(() -> server.getJoinedChannelCount() > 0)) {
+            System.err.println("The hub bot did not join it's channel");
+            return false;
+        }
+
+        // Lines sent before the client is connected are dropped, so keep sending until the first one arrives
+        if (!await(() -> {
+            clientBot.sendMessage(channel, "relay line");
+            return received.stream().anyMatch(line -> line.startsWith(channel + " relay line"));
+        })) {
+            System.err.println("LINE: no line from the client reached IRC");
+            return false;
+        }
+        System.out.println("LINE: delivered to " + channel);
+
+        // Lines are written in order, so once the second line arrived the first one would have as well
+        clientBot.sendMessage("NickServ", "IDENTIFY hunter2");
+        clientBot.sendMessage(channel, "relay fence");
+        if (!await(() -> received.stream().anyMatch(line -> line.startsWith(channel + " relay fence")))) {
+            System.err.println("LINE: the line after the rejected line did not reach IRC");
+            return false;
+        }
+        if (received.stream().anyMatch(line -> line.startsWith("NickServ "))) {
+            System.err.println("LINE: a line to a target the bot does not talk to reached IRC");
+            return false;
+        }
+        System.out.println("LINE: line to NickServ rejected");
+
+        Queue<String> events = new ConcurrentLinkedQueue<>();
+        clientBot.getToMinestom().addListener((type, user, content) -> events.add(type + " " + user + ' ' + content));
+        server.inject("someone", "relay event");
+        if (!await(() -> events.contains("CHAT someone relay event"))) {
+            System.err.println("EVENT: the channel message did not reach the client");
+            return false;
+        }
+        System.out.println("EVENT: echoed to the client");
+        return true;
+    }
+
+    private static boolean await(@NotNull BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    @NotNull
+    private static ConfigurationNode relay(@NotNull String mode, int port) throws Exception {
+        ConfigurationNode relay = BasicConfigurationNode.root();
+        relay.node("mode").set(mode);
+        relay.node("host").set("127.0.0.1");
+        relay.node("port").set(port);
+        relay.node("name").set("loopback");
+        relay.node("secret").set(SECRET);
+        return relay;
+    }
+
+    @NotNull
+    private static List<? extends ConfigurationNode> loadBots(int port) throws Exception {
+        List<? extends ConfigurationNode> bots = YamlConfigurationLoader.builder()
+                .url(RelayLoopbackCheck.class.getClassLoader().getResource("config.yml"))
+                .build().load().node("bots").childrenList();
+        for (ConfigurationNode bot : bots) {
+            bot.node("host").set("127.0.0.1");
+            bot.node("port").set(port);
+            bot.node("ssl").set(false);
+            bot.node("password").set(null);
+            bot.node("bind").set(null);
+        }
+        return bots;
+    }
+}